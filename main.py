@@ -20,7 +20,7 @@ def main():
         compile_java = ['javac', '-Xlint:unchecked', '-d', os.path.join('project', 'target'), os.path.join('project', 'src', '*.java')]
     else:
         srcs_file = open("sources.txt", "w")
-        find_java_srcs = ['find', '-name', '*.java']
+        find_java_srcs = ['find', os.path.join('project', 'src'), '-name', '*.java']
         subprocess.call(find_java_srcs, stdout=srcs_file)
         compile_java = ['javac', '-Xlint:unchecked', '-d', os.path.join('project', 'target'), '@sources.txt']
     ret_code = subprocess.call(compile_java, stdout=subprocess.DEVNULL)
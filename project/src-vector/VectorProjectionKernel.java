@@ -0,0 +1,39 @@
+import java.util.Arrays;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/* ProjectionKernel that adds each column to a block of projections several rows at
+ * a time using the Vector API. Multiplication and addition are kept separate
+ * rather than fused so the sums match the scalar kernel exactly. Compiled
+ * separately from project/src since it needs the jdk.incubator.vector module */
+public class VectorProjectionKernel extends ProjectionKernel {
+
+  /* Widest vector shape supported by the platform */
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  public String getName() {
+    return "vector-" + SPECIES.length();
+  }
+
+  protected void projectBlock(double[][] columns, double[] weights, int from, int to, double[] projections) {
+    Arrays.fill(projections, from, to, 0.0);
+    int bound = from + SPECIES.loopBound(to-from);
+    for(int j = 0; j < columns.length; j++) {
+      double weight = weights[j];
+      if(weight == 0) {
+        continue;
+      }
+      double[] column = columns[j];
+      DoubleVector weightVector = DoubleVector.broadcast(SPECIES, weight);
+      int r = from;
+      for(; r < bound; r += SPECIES.length()) {
+        DoubleVector sum = DoubleVector.fromArray(SPECIES, projections, r);
+        DoubleVector term = DoubleVector.fromArray(SPECIES, column, r).mul(weightVector);
+        sum.add(term).intoArray(projections, r);
+      }
+      for(; r < to; r++) {
+        projections[r] += weight * column[r];
+      }
+    }
+  }
+}
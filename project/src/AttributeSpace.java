@@ -1,4 +1,3 @@
-import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -8,13 +7,21 @@ import java.util.Collection;
 
 public class AttributeSpace {
 
-  private HashMap<String, Integer> classIndexMap;
+  private final int numClasses;
+  /* Whether records belong to one of only two classes. If so, class frequencies are
+   * tracked as positive (class code 1) and total counts instead of freqLists */
+  private final boolean binary;
   private double[] candidates;
   private int[][] freqLists;
+  /* Total weight of the positive records below each candidate, used when binary */
+  private int[] positiveCounts;
+  /* Total weight of the records below each candidate, used when binary */
+  private int[] totalCounts;
 
   /* Constructor */
-  public AttributeSpace(Collection<Record> records, int attribute, int maxBuckets, HashMap<String, Integer> classIndexMap) {
-    this.classIndexMap = classIndexMap;
+  public AttributeSpace(Collection<Record> records, int attribute, int maxBuckets, int numClasses) {
+    this.numClasses = numClasses;
+    this.binary = numClasses == 2;
     Random rand = new Random(attribute*records.size());
     TreeMap<Double, FreqList> valueMap = new TreeMap<>();
     for(Record record : records) {
@@ -35,18 +42,103 @@ public class AttributeSpace {
       }
     }
     candidates = new double[selectedIndexes.size()];
-    freqLists = new int[selectedIndexes.size()][classIndexMap.size()];
-    int[] freqs = new int[classIndexMap.size()];
+    if(binary) {
+      positiveCounts = new int[selectedIndexes.size()];
+      totalCounts = new int[selectedIndexes.size()];
+    } else {
+      freqLists = new int[selectedIndexes.size()][numClasses];
+    }
+    int[] freqs = binary ? null : new int[numClasses];
+    int positives = 0;
+    int total = 0;
     int index = 0;
-    int l = 0;
     for(int j = 0; j < keys.size(); j++) {
       double curVal = keys.get(j);
-      freqs = addArrays(freqs, valueMap.get(curVal).freqs);
+      FreqList curFreqs = valueMap.get(curVal);
+      if(binary) {
+        positives += curFreqs.positives;
+        total += curFreqs.total;
+      } else {
+        freqs = addArrays(freqs, curFreqs.freqs);
+      }
       if(!selectedIndexes.isEmpty() && j == selectedIndexes.peek()) {
         selectedIndexes.poll();
         double nextVal = keys.get(j+1);
         candidates[index] = 0.5*(curVal+nextVal);
-        freqLists[index++] = freqs;
+        if(binary) {
+          positiveCounts[index] = positives;
+          totalCounts[index] = total;
+        } else {
+          freqLists[index] = freqs;
+        }
+        index++;
+      }
+    }
+  }
+
+  /* Constructor. Selects candidates from a quantile sketch of the attribute's values
+   * of the specified size instead of from every distinct value, then counts the
+   * exact class frequencies below each candidate in a single pass. Memory use is
+   * bounded by the sketch size and the number of candidates. */
+  public AttributeSpace(Collection<Record> records, int attribute, int maxBuckets, int sketchSize, int numClasses) {
+    this.numClasses = numClasses;
+    this.binary = numClasses == 2;
+    QuantileSketch sketch = QuantileSketch.build(records, attribute, sketchSize, numClasses);
+    candidates = sketch.getCandidates(maxBuckets);
+    if(binary) {
+      positiveCounts = new int[candidates.length];
+      totalCounts = new int[candidates.length];
+    } else {
+      freqLists = new int[candidates.length][numClasses];
+    }
+    for(Record record : records) {
+      int bin = QuantileSketch.upperBound(candidates, record.getOrDefault(attribute));
+      if(bin < candidates.length) {
+        int classIndex = record.getClassCode();
+        int weight = record.getWeight();
+        if(binary) {
+          positiveCounts[bin] += classIndex*weight;
+          totalCounts[bin] += weight;
+        } else {
+          freqLists[bin][classIndex] += weight;
+        }
+      }
+    }
+    accumulateFreqLists();
+  }
+
+  /* Constructor. Selects candidates from and estimates class frequencies with the
+   * specified sketch alone, which may have been merged from sketches of separate
+   * partitions of the records. */
+  public AttributeSpace(QuantileSketch sketch, int maxBuckets, int numClasses) {
+    this.numClasses = numClasses;
+    this.binary = numClasses == 2;
+    candidates = sketch.getCandidates(maxBuckets);
+    freqLists = sketch.estimateFreqLists(candidates);
+    if(binary) {
+      positiveCounts = new int[candidates.length];
+      totalCounts = new int[candidates.length];
+      for(int i = 0; i < candidates.length; i++) {
+        positiveCounts[i] = freqLists[i][1];
+        totalCounts[i] = freqLists[i][0] + freqLists[i][1];
+      }
+      freqLists = null;
+    }
+  }
+
+  /* Converts the class frequencies between consecutive candidates into the class
+   * frequencies below each candidate */
+  private void accumulateFreqLists() {
+    if(binary) {
+      for(int i = 1; i < candidates.length; i++) {
+        positiveCounts[i] += positiveCounts[i-1];
+        totalCounts[i] += totalCounts[i-1];
+      }
+    } else {
+      for(int i = 1; i < freqLists.length; i++) {
+        for(int j = 0; j < freqLists[i].length; j++) {
+          freqLists[i][j] += freqLists[i-1][j];
+        }
       }
     }
   }
@@ -89,23 +181,55 @@ public class AttributeSpace {
   /* Returns the class frequency list of all instance with a value of the target
    * attribute less than the ith candidate */
   public int[] getFreqList(int index) {
+    if(binary) {
+      return new int[]{totalCounts[index] - positiveCounts[index], positiveCounts[index]};
+    }
     return freqLists[index];
   }
 
+  /* Accessor for binary */
+  public boolean isBinary() {
+    return binary;
+  }
+
+  /* Returns the number of positive instances with a value of the target attribute
+   * less than the ith candidate. Only valid if binary */
+  public int getPositiveCount(int index) {
+    return positiveCounts[index];
+  }
+
+  /* Returns the number of instances with a value of the target attribute less than
+   * the ith candidate. Only valid if binary */
+  public int getTotalCount(int index) {
+    return totalCounts[index];
+  }
+
   private class FreqList {
     int[] freqs;
+    int positives;
+    int total;
 
     FreqList() {
-      this.freqs = new int[classIndexMap.size()];
+      this.freqs = binary ? null : new int[numClasses];
     }
 
     void addRecord(Record record) {
-      freqs[classIndexMap.get(record.getClassLabel())]++;
+      int classIndex = record.getClassCode();
+      int weight = record.getWeight();
+      if(binary) {
+        positives += classIndex*weight;
+        total += weight;
+      } else {
+        freqs[classIndex] += weight;
+      }
     }
 
     /* Returns -1 is more than one class is present, return -2 if no class is present
      * otherwise returns the index of the only class present */
     int homogenuous() {
+      if(binary) {
+        return (total == 0) ? -2 : (positives == 0) ? 0 : (positives == total) ? 1 : -1;
+      }
       int found = -2;
       for(int i = 0; i < freqs.length; i++) {
         if(freqs[i] != 0) {
@@ -10,7 +10,9 @@ import java.io.IOException;
 import java.io.File;
 
 /* Performs n-folds cross validation on the classifier or creates the specified number of folds
- * Usage: CVDriver [sparse|dense] training_file_name training_label_file_name numFolds random_seed [F|GA-ODT|C-DT|DT]]*/
+ * Usage: CVDriver [sparse|dense] training_file_name training_label_file_name numFolds random_seed [F|GA-ODT|OC1-ODT|LDA-ODT|C-DT|DT|HT]]
+ * Prefixing a method with RF- cross validates a random forest of trees of that method.
+ * HT cross validates a Hoeffding tree streamed the training instances */
 public class CVDriver {
 
   private static int numFolds;
@@ -40,8 +42,9 @@ public class CVDriver {
   private static void crossValidate(String method) {
     ArrayList<Double> accuracies = new ArrayList<>(numFolds);
     for(int fold = 0; fold < numFolds; fold++) {
-      ArrayList<String> predictedLabels = ClassificationDriver.calculateLabels(method, trainingFolds.get(fold), testFolds.get(fold));
-      accuracies.add(calcBalancedAccuracy(predictedLabels, testFolds.get(fold)));
+      Classifier classifier = ClassificationDriver.buildClassifier(method, trainingFolds.get(fold));
+      int[] predictedClasses = classifier.classifyAllCodes(testFolds.get(fold));
+      accuracies.add(calcBalancedAccuracy(predictedClasses, testFolds.get(fold)));
       System.out.printf("Fold #%d's Accuracy: %.5f\n", (fold+1), accuracies.get(fold));
     }
     double mean = DataMiningUtil.mean(accuracies);
@@ -50,36 +53,37 @@ public class CVDriver {
     System.out.printf("Accuracy: mean = %f, std.dev = %f\n", mean, stdDev);
   }
 
-  /* Returns macro-average of recall scores per class */
-  public static double calcBalancedAccuracy(List<String> predictedLabels, List<Record> testRecords) {
-    ArrayList<String> classes = new ArrayList<>(Record.getAllClasses(testRecords));
-    int[] truePositives = new int[classes.size()];
-    int[] positives = new int[classes.size()];
-    for(int i = 0; i < predictedLabels.size(); i++) {
-      String prediction = predictedLabels.get(i).trim();
-      String expected = testRecords.get(i).getClassLabel().trim();
-      int index = classes.indexOf(expected);
-      if(prediction.equals(expected)) {
-        truePositives[index]++;
+  /* Returns macro-average of recall scores per class. Only classes present in the
+   * specified test records are averaged over */
+  public static double calcBalancedAccuracy(int[] predictedClasses, List<Record> testRecords) {
+    int numClasses = testRecords.get(0).getLabelTable().size();
+    int[] truePositives = new int[numClasses];
+    int[] positives = new int[numClasses];
+    for(int i = 0; i < predictedClasses.length; i++) {
+      int expected = testRecords.get(i).getClassCode();
+      if(predictedClasses[i] == expected) {
+        truePositives[expected]++;
       }
-      positives[index]++;
+      positives[expected]++;
     }
     double balancedAccuracy = 0;
+    int presentClasses = 0;
     for(int i = 0; i < positives.length; i++) {
-      balancedAccuracy += (1.0*truePositives[i])/positives[i];
+      if(positives[i] > 0) {
+        balancedAccuracy += (1.0*truePositives[i])/positives[i];
+        presentClasses++;
+      }
     }
-    return balancedAccuracy/positives.length;
+    return balancedAccuracy/presentClasses;
   }
 
-  /* Returns the percentage of predictedLabels that match the label for the corresponding
+  /* Returns the percentage of predictedClasses that match the class for the corresponding
    * testRecord */
-  private static double calcAccuracy(ArrayList<String> predictedLabels, ArrayList<Record> testRecords) {
+  private static double calcAccuracy(int[] predictedClasses, ArrayList<Record> testRecords) {
     int misses = 0;
     int hits = 0;
-    for(int i = 0; i < predictedLabels.size(); i++) {
-      String prediction = predictedLabels.get(i);
-      String expected = testRecords.get(i).getClassLabel();
-      if(prediction.equals(expected)) {
+    for(int i = 0; i < predictedClasses.length; i++) {
+      if(predictedClasses[i] == testRecords.get(i).getClassCode()) {
         hits++;
       } else {
         misses++;
@@ -89,7 +93,9 @@ public class CVDriver {
   }
 
   /* Splits the training set into numFolds number of folds. Uses those
-   * splits to create a training set and a testing set for each fold. */
+   * splits to create a training set and a testing set for each fold. Folds are
+   * stratified on the class labels rather than their codes so that the same
+   * seed keeps producing the same fold files. */
   private static void createFolds(ArrayList<Record> trainingRecords, Random rand) {
     ArrayList<String> classLabels = new ArrayList<>();
     for(Record record : trainingRecords) {
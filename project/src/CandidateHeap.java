@@ -0,0 +1,182 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Bounded heap of the axis-parallel split candidates with the lowest impurity.
+ * Candidates are stored as primitive (feature, threshold, impurity) tuples so that
+ * scoring a candidate allocates nothing and only the retained candidates are ever
+ * turned into SplitConditions. Ties in impurity are broken by feature and then
+ * threshold so the retained candidates do not depend on the order of offers. */
+public class CandidateHeap {
+
+  /* Maximum number of candidates retained */
+  private final int capacity;
+  /* Features of the retained candidates, arranged as a max-heap on badness */
+  private final int[] features;
+  /* Thresholds of the retained candidates */
+  private final double[] thresholds;
+  /* Impurities of the retained candidates */
+  private final double[] impurities;
+  /* Number of candidates retained */
+  private int size;
+  /* Number of candidates offered to this heap */
+  private long numOffered;
+
+  /* Constructor */
+  public CandidateHeap(int capacity) {
+    this.capacity = Math.max(capacity, 1);
+    this.features = new int[this.capacity];
+    this.thresholds = new double[this.capacity];
+    this.impurities = new double[this.capacity];
+    this.size = 0;
+    this.numOffered = 0;
+  }
+
+  /* Accessor for size */
+  public int size() {
+    return size;
+  }
+
+  /* Accessor for numOffered */
+  public long getNumOffered() {
+    return numOffered;
+  }
+
+  /* Offers the candidate that splits the specified feature at the specified
+   * threshold with the specified impurity. Retains it if it is among the best
+   * capacity candidates offered so far */
+  public void offer(int feature, double threshold, double impurity) {
+    numOffered++;
+    if(size < capacity) {
+      features[size] = feature;
+      thresholds[size] = threshold;
+      impurities[size] = impurity;
+      siftUp(size++);
+    } else if(isWorse(features[0], thresholds[0], impurities[0], feature, threshold, impurity)) {
+      features[0] = feature;
+      thresholds[0] = threshold;
+      impurities[0] = impurity;
+      siftDown(0);
+    }
+  }
+
+  /* Offers every candidate retained by the specified other heap to this heap */
+  public void merge(CandidateHeap other) {
+    for(int i = 0; i < other.size; i++) {
+      offer(other.features[i], other.thresholds[i], other.impurities[i]);
+    }
+    numOffered += other.numOffered - other.size;
+  }
+
+  /* Writes the retained candidates and the number offered to the specified stream */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    out.writeLong(numOffered);
+    for(int i = 0; i < size; i++) {
+      out.writeInt(features[i]);
+      out.writeDouble(thresholds[i]);
+      out.writeDouble(impurities[i]);
+    }
+  }
+
+  /* Returns a heap of the specified capacity holding the candidates read from the
+   * specified stream, as written by write */
+  public static CandidateHeap read(DataInputStream in, int capacity) throws IOException {
+    CandidateHeap heap = new CandidateHeap(capacity);
+    int size = in.readInt();
+    long numOffered = in.readLong();
+    for(int i = 0; i < size; i++) {
+      heap.offer(in.readInt(), in.readDouble(), in.readDouble());
+    }
+    heap.numOffered = numOffered;
+    return heap;
+  }
+
+  /* Returns SplitConditions for the specified number of best retained candidates
+   * in order of increasing impurity */
+  public List<SplitCondition> toSplitConditions(int numConditions) {
+    Integer[] order = new Integer[size];
+    for(int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> isWorse(a, b) ? 1 : isWorse(b, a) ? -1 : 0);
+    List<SplitCondition> conditions = new ArrayList<>(Math.min(numConditions, size));
+    for(int i = 0; i < Math.min(numConditions, size); i++) {
+      conditions.add(toSplitCondition(features[order[i]], thresholds[order[i]], impurities[order[i]]));
+    }
+    return conditions;
+  }
+
+  /* Returns a SplitCondition that tests whether the specified feature is less than
+   * the specified threshold with its impurity set to the specified value */
+  public static SplitCondition toSplitCondition(int feature, double threshold, double impurity) {
+    SplitCondition split = new SplitCondition(feature, threshold);
+    split.setImpurity(impurity);
+    return split;
+  }
+
+  /* Returns whether the first specified candidate is worse than the second */
+  private static boolean isWorse(int feature1, double threshold1, double impurity1, int feature2, double threshold2, double impurity2) {
+    if(impurity1 != impurity2) {
+      return impurity1 > impurity2;
+    } else if(feature1 != feature2) {
+      return feature1 > feature2;
+    } else {
+      return threshold1 > threshold2;
+    }
+  }
+
+  /* Returns whether the retained candidate at the first specified index is worse
+   * than the one at the second */
+  private boolean isWorse(int i, int j) {
+    return isWorse(features[i], thresholds[i], impurities[i], features[j], thresholds[j], impurities[j]);
+  }
+
+  /* Moves the candidate at the specified index up until the heap is ordered */
+  private void siftUp(int index) {
+    while(index > 0) {
+      int parent = (index-1)/2;
+      if(!isWorse(index, parent)) {
+        return;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  /* Moves the candidate at the specified index down until the heap is ordered */
+  private void siftDown(int index) {
+    while(true) {
+      int worst = index;
+      int left = 2*index+1;
+      int right = left+1;
+      if(left < size && isWorse(left, worst)) {
+        worst = left;
+      }
+      if(right < size && isWorse(right, worst)) {
+        worst = right;
+      }
+      if(worst == index) {
+        return;
+      }
+      swap(index, worst);
+      index = worst;
+    }
+  }
+
+  /* Swaps the candidates at the specified indexes */
+  private void swap(int i, int j) {
+    int tempFeature = features[i];
+    features[i] = features[j];
+    features[j] = tempFeature;
+    double tempThreshold = thresholds[i];
+    thresholds[i] = thresholds[j];
+    thresholds[j] = tempThreshold;
+    double tempImpurity = impurities[i];
+    impurities[i] = impurities[j];
+    impurities[j] = tempImpurity;
+  }
+}
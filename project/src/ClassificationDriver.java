@@ -3,9 +3,16 @@ import java.util.Random;
 
 /* Classifies the test instances using the training instances. Writes the
  * calculated classes out to a file.
- * Usage: ClassificationDriver [sparse|dense] test_file_name training_file_name training_label_file_name output_file_name [GA-ODT|C-DT|DT]*/
+ * Usage: ClassificationDriver [sparse|dense] test_file_name training_file_name training_label_file_name output_file_name [GA-ODT|OC1-ODT|LDA-ODT|C-DT|DT|HT]
+ * Prefixing a method with RF- trains a random forest of trees of that method instead.
+ * HT streams the training instances into a Hoeffding tree. A leaf is not split before
+ * 200 instances have reached it, so on data sets smaller than that, such as wine, HT
+ * predicts the majority class for every instance */
 public class ClassificationDriver {
 
+  /* Prefix of the names of methods that train a random forest of trees */
+  private static final String FOREST_PREFIX = "RF-";
+
   public static void main(String[] args) {
     Timer timer = new Timer();
     timer.start();
@@ -24,12 +31,20 @@ public class ClassificationDriver {
   /* Returns a list of the labels calculated for the specified training and test
    * data using the specified decision tree method */
   public static ArrayList<String> calculateLabels(String method, ArrayList<Record> trainingData, ArrayList<Record> testData) {
+    return buildClassifier(method, trainingData).classifyAll(testData);
+  }
+
+  /* Returns a classifier trained on the specified training data using the specified
+   * decision tree method */
+  public static Classifier buildClassifier(String method, ArrayList<Record> trainingData) {
     DecisionTreeBuilder builder = new DecisionTreeBuilder()
                       .reservePortionDenom(5)
                       .prune(false)
                       .rand(new Random(484))
                       .numThreads(4)
                       .maxBuckets(200)
+                      .sketchMinRecords(50000)
+                      .sketchSize(800)
                       .maxNonHomogenuousPercent(0.001)
                       .maxBaseConditions(300)
                       .minBaseConditions(100)
@@ -37,13 +52,55 @@ public class ClassificationDriver {
                       .maxGeneConditions(100)
                       .minGeneConditions(1)
                       .geneConditionsPercent(0.45)
+                      .warmStartFraction(0)
+                      .reportConvergence(false)
+                      .budgetMillis(0)
+                      .budgetEvaluations(0)
+                      .anytime(false)
+                      .numRestarts(5)
+                      .numRandomJumps(5)
+                      .shrinkage(0.1)
+                      .featureFraction(1.0)
+                      .numTrees(50)
+                      .mergeDuplicates(false)
+                      .bundleFeatures(false)
+                      .maxConflictRate(0.0)
+                      .bestFirst(false)
+                      .maxLeaves(0)
+                      .maxDepth(0)
+                      .minGain(0.0)
+                      .growthMillis(0)
+                      .checkpointFile(null)
+                      .checkpointMillis(60000)
+                      .gracePeriod(200)
+                      .splitConfidence(1e-7)
+                      .tieThreshold(0.05)
+                      .streamBatchSize(1000)
+                      .numWorkers(0)
                       .populationSize(128)
                       .tournamentSize(4)
                       .replacementTournamentSize(6)
-                      .maxGenerations(200);
+                      .maxGenerations(200)
+                      .optimizeBias(false)
+                      .racingMinRecords(5000)
+                      .racingSampleSize(1000)
+                      .numIslands(1)
+                      .migrationInterval(10);
+    // Methods prefixed with RF- train a random forest of trees of the named method
+    boolean forest = method.startsWith(FOREST_PREFIX);
+    if(forest) {
+      method = method.substring(FOREST_PREFIX.length());
+    }
+    if(method.equals("HT") && !forest) {
+      return builder.buildStreaming(trainingData);
+    }
     Class<? extends SplitStrategy> strategyClass;
     if(method.equals("GA-ODT")) {
       strategyClass = GeneticSplitStrategy.class;
+    } else if(method.equals("OC1-ODT")) {
+      strategyClass = PerturbationSplitStrategy.class;
+    } else if(method.equals("LDA-ODT")) {
+      strategyClass = DiscriminantSplitStrategy.class;
     } else if(method.equals("C-DT")) {
       strategyClass = CompoundSplitStrategy.class;
     } else if(method.equals("DT")) {
@@ -51,7 +108,12 @@ public class ClassificationDriver {
     } else {
       throw new RuntimeException("Invalid splitting method name: " + method);
     }
-    DecisionTree classifier = builder.build(trainingData, strategyClass);
-    return classifier.classifyAll(testData);
+    if(forest) {
+      // Consider the square root of the number of features at each node
+      int numFeatures = Record.getAllFeatures(trainingData).size();
+      return builder.featureFraction(Math.min(1.0, Math.ceil(Math.sqrt(numFeatures))/numFeatures))
+                    .buildEnsemble(trainingData, strategyClass);
+    }
+    return builder.build(trainingData, strategyClass);
   }
 }
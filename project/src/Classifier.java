@@ -1,11 +1,32 @@
 import java.util.ArrayList;
+import java.util.List;
 
 /* Represents some method for calculating the classes of test instances */
 public abstract class Classifier {
 
+  /* Classifies a single training instance and returns the code of that calculated
+   * class */
+  public abstract int classifyCode(Record record);
+
+  /* Returns the table that the codes of calculated classes are interned in */
+  public abstract LabelTable getLabelTable();
+
   /* Classifies a single training instance and returns a string representation of
    * that calculated class */
-  public abstract String classify(Record record);
+  public String classify(Record record) {
+    return getLabelTable().getLabel(classifyCode(record));
+  }
+
+  /* Classifies every instances in the specified list of records and returns an
+   * array of the codes of those calculated classes */
+  public int[] classifyAllCodes(List<Record> records) {
+    int[] codes = new int[records.size()];
+    int i = 0;
+    for(Record record : records) {
+      codes[i++] = classifyCode(record);
+    }
+    return codes;
+  }
 
   /* Classifies every instances in the specified iterable of records and returns a
    * list of those calculated classes */
@@ -0,0 +1,541 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+/* Searches the boolean combinations of pairs of conditions at a single node for the
+ * ones that produce the purest partitions of the node's records. The records each
+ * condition accepts are held as a bitset over the node's records so combinations
+ * can be scored with popcounts. Before a combination is scored, a lower bound on
+ * its weighted Gini impurity is computed from the two operands' class frequencies
+ * and the size of their intersection. The combination is skipped if that bound
+ * shows it cannot displace any of the conditions retained so far, so the result
+ * is the same as scoring every combination.
+ * Weighted records are counted with popcounts too: the weights are split into bit
+ * planes, bitsets of the records whose weight has bit b set, and the weight of a
+ * bitset is the sum over the planes of its popcount with the plane shifted left by
+ * b.
+ * Every condition is also interned as an expression over the node's base
+ * conditions, so combinations that are equivalent after normalization, or that
+ * are the negation of one another and therefore split the records identically, are
+ * scored and retained only once. Impurities are memoized by canonical expression
+ * for the lifetime of the search, so repeated rounds of combination reuse them.
+ * Each thread keeps its own expression table and memo so scoring needs no locks,
+ * and the conditions retained in a round are imported into every thread's table. */
+public class CompoundConditionSearch {
+
+  /* Operations used to combine a pair of conditions A and B. Together with
+   * negation these cover every function of two conditions other than exclusive or */
+  private static final int OR = 0;
+  private static final int AND = 1;
+  /* Not A and B */
+  private static final int NOT_AND = 2;
+  /* A and not B */
+  private static final int AND_NOT = 3;
+  private static final int NUM_OPERATIONS = 4;
+  /* Slack allowed between a lower bound and an exact impurity for rounding error */
+  private static final double BOUND_TOLERANCE = 1e-9;
+
+  /* The records reaching the node */
+  private final List<Record> records;
+  /* Number of different class codes records can have */
+  private final int numClasses;
+  /* Number of threads combinations are scored on */
+  private final int numThreads;
+  /* Frequencies of the classes of the node's records */
+  private final int[] classFreqs;
+  /* Total weight of the node's records */
+  private final int totalWeight;
+  /* For each bit of the records' weights, a bitset of the records whose weight has
+   * that bit set. Null if every record has a weight of one */
+  private final long[][] weightPlanes;
+  /* For each class, a bitset of the node's records from that class */
+  private final long[][] classMasks;
+  /* For each thread, expressions over the base conditions for the conditions
+   * searched */
+  private final ArrayList<ConditionExpressions> expressions;
+  /* Base conditions that expressions refer to by index */
+  private final List<SplitCondition> baseConditions;
+  /* For each thread, impurity of each canonical expression id in its table scored
+   * so far */
+  private final ArrayList<HashMap<Integer, Double>> impurities;
+
+  /* Constructor */
+  public CompoundConditionSearch(List<Record> records, int numClasses, int numThreads) {
+    this.records = records;
+    this.numClasses = numClasses;
+    this.numThreads = numThreads;
+    this.classFreqs = DecisionTree.getClassFreqs(records, numClasses);
+    this.totalWeight = DecisionTree.sumArray(classFreqs);
+    this.classMasks = new long[numClasses][numWords(records.size())];
+    int maxWeight = 1;
+    int i = 0;
+    for(Record record : records) {
+      classMasks[record.getClassCode()][i >>> 6] |= 1L << i;
+      maxWeight = Math.max(maxWeight, record.getWeight());
+      i++;
+    }
+    if(maxWeight == 1) {
+      this.weightPlanes = null;
+    } else {
+      this.weightPlanes = new long[32 - Integer.numberOfLeadingZeros(maxWeight)][numWords(records.size())];
+      i = 0;
+      for(Record record : records) {
+        int weight = record.getWeight();
+        for(int b = 0; b < weightPlanes.length; b++) {
+          if((weight & (1 << b)) != 0) {
+            weightPlanes[b][i >>> 6] |= 1L << i;
+          }
+        }
+        i++;
+      }
+    }
+    this.expressions = new ArrayList<>(numThreads);
+    this.impurities = new ArrayList<>(numThreads);
+    for(int t = 0; t < numThreads; t++) {
+      expressions.add(new ConditionExpressions());
+      impurities.add(new HashMap<>());
+    }
+    this.baseConditions = new ArrayList<>();
+  }
+
+  /* Returns entries for the specified base conditions, whose impurities must
+   * already be set, recording which of the node's records each accepts */
+  public List<Entry> toEntries(List<SplitCondition> conditions) {
+    List<Entry> entries = new ArrayList<>(conditions.size());
+    for(SplitCondition condition : conditions) {
+      int[] ids = new int[numThreads];
+      for(int t = 0; t < numThreads; t++) {
+        ids[t] = expressions.get(t).literal(baseConditions.size(), false);
+        impurities.get(t).putIfAbsent(expressions.get(t).canonical(ids[t]), condition.getImpurity());
+      }
+      baseConditions.add(condition);
+      long[] mask = condition.testAll(records);
+      entries.add(new Entry(condition, mask, ids));
+    }
+    return entries;
+  }
+
+  /* Returns the conditions held by the specified entries */
+  public static List<SplitCondition> toConditions(List<Entry> entries) {
+    List<SplitCondition> conditions = new ArrayList<>(entries.size());
+    for(Entry entry : entries) {
+      conditions.add(entry.condition);
+    }
+    return conditions;
+  }
+
+  /* Returns the specified number of purest conditions from among the specified
+   * conditions and every combination of a pair of them, in order of increasing
+   * impurity. Ties are broken by rank and then by the order in which conditions
+   * and combinations are enumerated. Equivalent conditions are only returned once */
+  public List<Entry> bestCombinations(int numConditions, List<Entry> conditions) {
+    ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+    ArrayList<ScoredHeap> heaps = new ArrayList<>();
+    for(int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      ScoredHeap heap = new ScoredHeap(numConditions);
+      heaps.add(heap);
+      Callable<Boolean> task = () -> {
+        try {
+          for(int i = 0; i < conditions.size(); i++) {
+            Entry entry = conditions.get(i);
+            int id = entry.ids[thread];
+            heap.offer(new Scored(thread, i, i, -1, -1, id, entry.condition.getImpurity()));
+          }
+          Workspace workspace = new Workspace();
+          for(int i = thread; i < conditions.size(); i+=numThreads) {
+            for(int j = i+1; j < conditions.size(); j++) {
+              scorePair(thread, heap, conditions, i, j, workspace);
+            }
+          }
+          return true;
+        } catch(Exception e) {
+          e.printStackTrace();
+          return false;
+        }
+      };
+      tasks.add(task);
+    }
+    DataMiningUtil.runTasks(tasks, numThreads);
+    ArrayList<Scored> merged = new ArrayList<>();
+    for(ScoredHeap heap : heaps) {
+      merged.addAll(heap.queue);
+    }
+    // Equivalent conditions may be retained by several threads, keep the first
+    Collections.sort(merged, SCORED_ORDER);
+    HashSet<Integer> seen = new HashSet<>();
+    List<Entry> best = new ArrayList<>(numConditions);
+    for(Scored scored : merged) {
+      if(best.size() == numConditions) {
+        break;
+      }
+      int[] ids = new int[numThreads];
+      for(int t = 0; t < numThreads; t++) {
+        ids[t] = (t == scored.thread) ? scored.id : expressions.get(t).importExpression(expressions.get(scored.thread), scored.id);
+      }
+      if(seen.add(expressions.get(0).canonical(ids[0]))) {
+        for(int t = 0; t < numThreads; t++) {
+          impurities.get(t).putIfAbsent(expressions.get(t).canonical(ids[t]), scored.impurity);
+        }
+        best.add(materialize(scored, ids, conditions));
+      }
+    }
+    return best;
+  }
+
+  /* Scores the combinations of the conditions at the specified indexes whose lower
+   * bounds do not rule them out and that are not equivalent to a condition already
+   * retained, offering each to the specified thread's heap */
+  private void scorePair(int thread, ScoredHeap heap, List<Entry> conditions, int i, int j, Workspace workspace) {
+    ConditionExpressions table = expressions.get(thread);
+    HashMap<Integer, Double> memo = impurities.get(thread);
+    Entry entry1 = conditions.get(i);
+    Entry entry2 = conditions.get(j);
+    int intersection = weightOf(entry1.mask, entry2.mask);
+    boolean needsFreqs = false;
+    boolean bounded = false;
+    for(int op = 0; op < NUM_OPERATIONS; op++) {
+      workspace.ids[op] = ConditionExpressions.CONSTANT;
+      if(!heap.isFull()) {
+        workspace.survivors[op] = true;
+      } else {
+        if(!bounded) {
+          setIntersectionIntervals(entry1, entry2, intersection, workspace);
+          bounded = true;
+        }
+        workspace.survivors[op] = lowerBound(entry1, entry2, intersection, op, workspace) <= heap.worst().impurity + BOUND_TOLERANCE;
+      }
+      if(workspace.survivors[op]) {
+        int id = combine(table, entry1.ids[thread], entry2.ids[thread], op);
+        if(id == ConditionExpressions.CONSTANT || heap.contains(table.canonical(id))) {
+          workspace.survivors[op] = false;
+        } else {
+          workspace.ids[op] = id;
+          needsFreqs |= !memo.containsKey(table.canonical(id));
+        }
+      }
+    }
+    if(needsFreqs) {
+      for(int c = 0; c < numClasses; c++) {
+        workspace.intersectionFreqs[c] = weightOf(entry1.mask, entry2.mask, classMasks[c]);
+      }
+    }
+    long pairIndex = (long)i*conditions.size() + j;
+    for(int op = 0; op < NUM_OPERATIONS; op++) {
+      if(workspace.survivors[op]) {
+        final int operation = op;
+        int id = workspace.ids[op];
+        double impurity = memo.computeIfAbsent(table.canonical(id), (canonical) -> {
+          int total = combinedFreqs(entry1, entry2, workspace.intersectionFreqs, intersection, operation, workspace.freqsLeft);
+          return impurity(total, workspace);
+        });
+        long seq = conditions.size() + pairIndex*NUM_OPERATIONS + op;
+        heap.offer(new Scored(thread, seq, i, j, op, id, impurity));
+      }
+    }
+  }
+
+  /* Returns the id in the specified table of the expression for the specified
+   * combination of the expressions with the specified ids */
+  private static int combine(ConditionExpressions table, int id1, int id2, int op) {
+    if(op == AND) {
+      return table.and(id1, id2);
+    } else if(op == OR) {
+      return table.or(id1, id2);
+    } else if(op == NOT_AND) {
+      return table.and(table.negate(id1), id2);
+    } else {
+      return table.and(id1, table.negate(id2));
+    }
+  }
+
+  /* Fills the specified array with the class frequencies of the records accepted by
+   * the specified combination of the specified entries and returns their total */
+  private int combinedFreqs(Entry entry1, Entry entry2, int[] intersectionFreqs, int intersection, int op, int[] freqs) {
+    for(int c = 0; c < numClasses; c++) {
+      freqs[c] = combinedFreq(entry1.classFreqs[c], entry2.classFreqs[c], intersectionFreqs[c], op);
+    }
+    return combinedTotal(entry1, entry2, intersection, op);
+  }
+
+  /* Returns the total weight of the records accepted by the specified combination
+   * of the specified entries */
+  private static int combinedTotal(Entry entry1, Entry entry2, int intersection, int op) {
+    return combinedFreq(entry1.total, entry2.total, intersection, op);
+  }
+
+  /* Returns the number of records accepted by the specified combination of two
+   * conditions given the number each accepts and the number both accept */
+  private static int combinedFreq(int freq1, int freq2, int intersectionFreq, int op) {
+    if(op == AND) {
+      return intersectionFreq;
+    } else if(op == OR) {
+      return freq1 + freq2 - intersectionFreq;
+    } else if(op == NOT_AND) {
+      return freq2 - intersectionFreq;
+    } else {
+      return freq1 - intersectionFreq;
+    }
+  }
+
+  /* Returns the weighted Gini impurity of splitting the node's records into the
+   * specified number of records with the class frequencies held in the specified
+   * workspace's freqsLeft and the rest */
+  private double impurity(int totalLeft, Workspace workspace) {
+    if(numClasses == 2) {
+      return SplitStrategy.calcWeightedBinaryGiniImpurity(workspace.freqsLeft[1], totalLeft, classFreqs[1], totalWeight);
+    }
+    for(int c = 0; c < numClasses; c++) {
+      workspace.freqsRight[c] = classFreqs[c] - workspace.freqsLeft[c];
+    }
+    return SplitStrategy.calcWeightedGiniImpurity(workspace.freqsLeft, workspace.freqsRight, totalLeft, totalWeight);
+  }
+
+  /* Sets the interval that the number of records of each class in the intersection
+   * of the specified entries must lie in, given only the entries' class frequencies
+   * and the size of their intersection */
+  private void setIntersectionIntervals(Entry entry1, Entry entry2, int intersection, Workspace workspace) {
+    int sumLow = 0;
+    int sumHigh = 0;
+    for(int c = 0; c < numClasses; c++) {
+      workspace.low[c] = Math.max(0, entry1.classFreqs[c] + entry2.classFreqs[c] - classFreqs[c]);
+      workspace.high[c] = Math.min(entry1.classFreqs[c], entry2.classFreqs[c]);
+      sumLow += workspace.low[c];
+      sumHigh += workspace.high[c];
+    }
+    for(int c = 0; c < numClasses; c++) {
+      int low = Math.max(workspace.low[c], intersection - (sumHigh - workspace.high[c]));
+      int high = Math.min(workspace.high[c], intersection - (sumLow - workspace.low[c]));
+      workspace.low[c] = low;
+      workspace.high[c] = high;
+    }
+  }
+
+  /* Returns a lower bound on the weighted Gini impurity of the specified combination
+   * of the specified entries given only the entries' class frequencies and the
+   * size of their intersection. The number of records of class c in the
+   * intersection, x_c, lies in the interval held in the specified workspace. Each
+   * side's class frequencies are linear in x_c, so the sum of squared frequencies
+   * that the impurity subtracts is convex in each x_c and is bounded above by
+   * taking the larger endpoint value for each class independently */
+  private double lowerBound(Entry entry1, Entry entry2, int intersection, int op, Workspace workspace) {
+    int n = totalWeight;
+    int totalLeft = combinedTotal(entry1, entry2, intersection, op);
+    if(totalLeft == 0 || totalLeft == n) {
+      return SplitStrategy.getGiniImpurity(classFreqs);
+    }
+    double maxSquares = 0;
+    for(int c = 0; c < numClasses; c++) {
+      if(workspace.low[c] > workspace.high[c]) {
+        // Inconsistent interval, cannot occur for real counts
+        return 0.0;
+      }
+      maxSquares += Math.max(squares(entry1, entry2, c, workspace.low[c], op, totalLeft),
+                             squares(entry1, entry2, c, workspace.high[c], op, totalLeft));
+    }
+    return 1.0 - maxSquares/n;
+  }
+
+  /* Returns the contribution of class c to the sum of squared frequencies divided by
+   * side sizes when the intersection holds the specified number of records of
+   * class c */
+  private double squares(Entry entry1, Entry entry2, int c, int intersectionFreq, int op, int totalLeft) {
+    int left = combinedFreq(entry1.classFreqs[c], entry2.classFreqs[c], intersectionFreq, op);
+    int right = classFreqs[c] - left;
+    return (1.0*left*left)/totalLeft + (1.0*right*right)/(totalWeight - totalLeft);
+  }
+
+  /* Creates the entry for the specified scored condition, whose expression has the
+   * specified id in each thread's table */
+  private Entry materialize(Scored scored, int[] ids, List<Entry> conditions) {
+    if(scored.op == -1) {
+      return conditions.get(scored.index1);
+    }
+    long[] mask1 = conditions.get(scored.index1).mask;
+    long[] mask2 = conditions.get(scored.index2).mask;
+    long[] mask = new long[mask1.length];
+    for(int w = 0; w < mask.length; w++) {
+      if(scored.op == OR) {
+        mask[w] = mask1[w] | mask2[w];
+      } else if(scored.op == AND) {
+        mask[w] = mask1[w] & mask2[w];
+      } else if(scored.op == NOT_AND) {
+        mask[w] = ~mask1[w] & mask2[w];
+      } else {
+        mask[w] = mask1[w] & ~mask2[w];
+      }
+    }
+    if(mask.length > 0 && (records.size() & 63) != 0) {
+      // Clear the bits past the last record set by negation
+      mask[mask.length-1] &= (1L << records.size()) - 1;
+    }
+    SplitCondition condition = expressions.get(scored.thread).toSplitCondition(scored.id, baseConditions);
+    condition.setImpurity(scored.impurity);
+    return new Entry(condition, mask, ids);
+  }
+
+  /* Returns the total weight of the records accepted by both of the specified
+   * bitsets */
+  private int weightOf(long[] mask1, long[] mask2) {
+    int count = 0;
+    if(weightPlanes == null) {
+      for(int w = 0; w < mask1.length; w++) {
+        count += Long.bitCount(mask1[w] & mask2[w]);
+      }
+      return count;
+    }
+    for(int b = 0; b < weightPlanes.length; b++) {
+      long[] plane = weightPlanes[b];
+      int planeCount = 0;
+      for(int w = 0; w < mask1.length; w++) {
+        planeCount += Long.bitCount(mask1[w] & mask2[w] & plane[w]);
+      }
+      count += planeCount << b;
+    }
+    return count;
+  }
+
+  /* Returns the total weight of the records accepted by all three of the specified
+   * bitsets */
+  private int weightOf(long[] mask1, long[] mask2, long[] mask3) {
+    int count = 0;
+    if(weightPlanes == null) {
+      for(int w = 0; w < mask1.length; w++) {
+        count += Long.bitCount(mask1[w] & mask2[w] & mask3[w]);
+      }
+      return count;
+    }
+    for(int b = 0; b < weightPlanes.length; b++) {
+      long[] plane = weightPlanes[b];
+      int planeCount = 0;
+      for(int w = 0; w < mask1.length; w++) {
+        planeCount += Long.bitCount(mask1[w] & mask2[w] & mask3[w] & plane[w]);
+      }
+      count += planeCount << b;
+    }
+    return count;
+  }
+
+  /* Returns the number of 64 bit words needed for a bitset over the specified number
+   * of records */
+  private static int numWords(int numRecords) {
+    return (numRecords + 63) >>> 6;
+  }
+
+  /* Orders scored conditions by impurity, then rank, then enumeration order */
+  private static final Comparator<Scored> SCORED_ORDER = (a, b) -> {
+    int comp = Double.compare(a.impurity, b.impurity);
+    if(comp == 0) {
+      comp = Integer.compare(a.rank, b.rank);
+    }
+    return (comp == 0) ? Long.compare(a.seq, b.seq) : comp;
+  };
+
+  /* Arrays reused by a single thread while scoring pairs */
+  private class Workspace {
+    final boolean[] survivors = new boolean[NUM_OPERATIONS];
+    final int[] ids = new int[NUM_OPERATIONS];
+    final int[] intersectionFreqs = new int[numClasses];
+    final int[] freqsLeft = new int[numClasses];
+    final int[] freqsRight = new int[numClasses];
+    final int[] low = new int[numClasses];
+    final int[] high = new int[numClasses];
+  }
+
+  /* A condition or combination of a pair of conditions that has been scored but not
+   * necessarily created */
+  private class Scored {
+    final int thread;
+    final long seq;
+    final int index1;
+    final int index2;
+    final int op;
+    final int id;
+    final int canonical;
+    final double impurity;
+    final int rank;
+
+    /* The id, canonical id and rank are taken from the specified thread's table */
+    Scored(int thread, long seq, int index1, int index2, int op, int id, double impurity) {
+      this.thread = thread;
+      this.seq = seq;
+      this.index1 = index1;
+      this.index2 = index2;
+      this.op = op;
+      this.id = id;
+      this.canonical = expressions.get(thread).canonical(id);
+      this.impurity = impurity;
+      this.rank = expressions.get(thread).getNumLiterals(id);
+    }
+  }
+
+  /* Bounded heap of the purest scored conditions retained by a single thread,
+   * holding at most one condition per canonical expression */
+  private static class ScoredHeap {
+    final int capacity;
+    final PriorityQueue<Scored> queue;
+    final HashSet<Integer> canonicals;
+
+    ScoredHeap(int capacity) {
+      this.capacity = capacity;
+      this.queue = new PriorityQueue<>(Collections.reverseOrder(SCORED_ORDER));
+      this.canonicals = new HashSet<>();
+    }
+
+    boolean isFull() {
+      return queue.size() >= capacity;
+    }
+
+    Scored worst() {
+      return queue.peek();
+    }
+
+    boolean contains(int canonical) {
+      return canonicals.contains(canonical);
+    }
+
+    /* Retains the specified scored condition if it is among the capacity purest
+     * offered so far and no equivalent condition is retained */
+    void offer(Scored scored) {
+      if(canonicals.contains(scored.canonical)) {
+        return;
+      }
+      if(!isFull()) {
+        queue.add(scored);
+        canonicals.add(scored.canonical);
+      } else if(capacity > 0 && SCORED_ORDER.compare(scored, queue.peek()) < 0) {
+        canonicals.remove(queue.poll().canonical);
+        queue.add(scored);
+        canonicals.add(scored.canonical);
+      }
+    }
+  }
+
+  /* A condition along with the node's records that it accepts */
+  public class Entry {
+    final SplitCondition condition;
+    final long[] mask;
+    final int[] classFreqs;
+    final int total;
+    /* Id of the condition's expression in each thread's table */
+    final int[] ids;
+
+    Entry(SplitCondition condition, long[] mask, int[] ids) {
+      this.condition = condition;
+      this.mask = mask;
+      this.ids = ids;
+      this.classFreqs = new int[numClasses];
+      int total = 0;
+      for(int c = 0; c < numClasses; c++) {
+        classFreqs[c] = weightOf(mask, classMasks[c]);
+        total += classFreqs[c];
+      }
+      this.total = total;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+import java.util.Arrays;
+import java.util.List;
+
+/* Hash-consed table of boolean expressions over the ids of a node's base
+ * conditions. Expressions are kept in negation normal form with the operands of
+ * and/or nodes flattened, sorted and deduplicated, so syntactically different
+ * but equivalent combinations produced while refining compound conditions share
+ * one id. Because a condition and its negation split records identically, each
+ * expression also has a canonical id shared with its negation.
+ * A table is not thread safe, each thread searching combinations keeps its own
+ * and expressions are copied between tables with importExpression. */
+public class ConditionExpressions {
+
+  /* Kinds of expression nodes */
+  private static final int LITERAL = 0;
+  private static final int AND = 1;
+  private static final int OR = 2;
+  /* Id returned for expressions that are always true or always false */
+  public static final int CONSTANT = -1;
+  /* Initial number of expressions the table has room for */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /* Number of expressions in the table */
+  private int size;
+  /* Kind of each expression */
+  private int[] kinds;
+  /* Operand ids of each and/or expression, or the base condition index and sign
+   * (1 if negated) of each literal */
+  private int[][] operands;
+  /* Number of literals in each expression */
+  private int[] numLiterals;
+  /* Id of the negation of each expression or CONSTANT if not yet created */
+  private int[] negations;
+  /* Open addressing hash table keyed by the kind and operands of each expression
+   * holding one more than its id, or 0 for empty slots */
+  private int[] slots;
+
+  /* Constructor */
+  public ConditionExpressions() {
+    this.size = 0;
+    this.kinds = new int[INITIAL_CAPACITY];
+    this.operands = new int[INITIAL_CAPACITY][];
+    this.numLiterals = new int[INITIAL_CAPACITY];
+    this.negations = new int[INITIAL_CAPACITY];
+    this.slots = new int[2*INITIAL_CAPACITY];
+  }
+
+  /* Returns the id of the literal for the base condition with the specified index,
+   * negated if specified */
+  public int literal(int base, boolean negated) {
+    return intern(LITERAL, new int[]{base, negated ? 1 : 0}, 1);
+  }
+
+  /* Returns the id of the conjunction of the specified expressions */
+  public int and(int id1, int id2) {
+    return combine(AND, id1, id2);
+  }
+
+  /* Returns the id of the disjunction of the specified expressions */
+  public int or(int id1, int id2) {
+    return combine(OR, id1, id2);
+  }
+
+  /* Returns the id of the negation of the specified expression */
+  public int negate(int id) {
+    int negation = negations[id];
+    if(negation == CONSTANT) {
+      int[] ops = operands[id];
+      if(kinds[id] == LITERAL) {
+        negation = literal(ops[0], ops[1] == 0);
+      } else {
+        int[] negatedOps = new int[ops.length];
+        for(int i = 0; i < ops.length; i++) {
+          negatedOps[i] = negate(ops[i]);
+        }
+        negation = normalize(kinds[id] == AND ? OR : AND, negatedOps);
+      }
+      negations[id] = negation;
+      negations[negation] = id;
+    }
+    return negation;
+  }
+
+  /* Returns the id shared by the specified expression and its negation */
+  public int canonical(int id) {
+    return Math.min(id, negate(id));
+  }
+
+  /* Returns the number of literals in the specified expression */
+  public int getNumLiterals(int id) {
+    return numLiterals[id];
+  }
+
+  /* Returns the id in this table of the expression with the specified id in the
+   * specified table. Both tables must refer to the same base conditions */
+  public int importExpression(ConditionExpressions other, int id) {
+    int[] ops = other.operands[id];
+    if(other.kinds[id] == LITERAL) {
+      return literal(ops[0], ops[1] == 1);
+    }
+    int[] imported = new int[ops.length];
+    for(int i = 0; i < ops.length; i++) {
+      imported[i] = importExpression(other, ops[i]);
+    }
+    return normalize(other.kinds[id], imported);
+  }
+
+  /* Returns a SplitCondition that evaluates the specified expression using the
+   * specified base conditions */
+  public SplitCondition toSplitCondition(int id, List<SplitCondition> baseConditions) {
+    int[] ops = operands[id];
+    if(kinds[id] == LITERAL) {
+      SplitCondition base = baseConditions.get(ops[0]);
+      return (ops[1] == 1) ? base.negate() : base;
+    }
+    SplitCondition condition = toSplitCondition(ops[0], baseConditions);
+    for(int i = 1; i < ops.length; i++) {
+      SplitCondition next = toSplitCondition(ops[i], baseConditions);
+      condition = (kinds[id] == AND) ? condition.and(next) : condition.or(next);
+    }
+    return condition;
+  }
+
+  /* Returns the id of the specified kind of combination of the specified two
+   * expressions */
+  private int combine(int kind, int id1, int id2) {
+    return normalize(kind, new int[]{id1, id2});
+  }
+
+  /* Returns the id of the specified kind of combination of the specified operands
+   * after flattening nested operations of the same kind, removing duplicate
+   * operands and applying absorption. Returns CONSTANT if a literal appears with its
+   * negation */
+  private int normalize(int kind, int[] ops) {
+    int length = 0;
+    for(int op : ops) {
+      length += (kinds[op] == kind) ? operands[op].length : 1;
+    }
+    int[] sorted = new int[length];
+    length = 0;
+    for(int op : ops) {
+      if(kinds[op] == kind) {
+        for(int nested : operands[op]) {
+          sorted[length++] = nested;
+        }
+      } else {
+        sorted[length++] = op;
+      }
+    }
+    Arrays.sort(sorted);
+    int unique = 0;
+    for(int i = 0; i < sorted.length; i++) {
+      if(unique == 0 || sorted[unique-1] != sorted[i]) {
+        sorted[unique++] = sorted[i];
+      }
+    }
+    for(int i = 0; i < unique; i++) {
+      if(kinds[sorted[i]] == LITERAL && Arrays.binarySearch(sorted, 0, unique, negate(sorted[i])) >= 0) {
+        return CONSTANT;
+      }
+    }
+    // Absorption: x && (x || y) == x and x || (x && y) == x
+    int kept = 0;
+    for(int i = 0; i < unique; i++) {
+      boolean absorbed = false;
+      if(kinds[sorted[i]] != LITERAL) {
+        for(int nested : operands[sorted[i]]) {
+          if(Arrays.binarySearch(sorted, 0, unique, nested) >= 0) {
+            absorbed = true;
+            break;
+          }
+        }
+      }
+      if(!absorbed) {
+        sorted[kept++] = sorted[i];
+      }
+    }
+    if(kept == 1) {
+      return sorted[0];
+    }
+    int literals = 0;
+    for(int i = 0; i < kept; i++) {
+      literals += numLiterals[sorted[i]];
+    }
+    return intern(kind, (kept == sorted.length) ? sorted : Arrays.copyOf(sorted, kept), literals);
+  }
+
+  /* Returns the id of the expression of the specified kind and operands, creating
+   * it if it does not already exist */
+  private int intern(int kind, int[] ops, int literals) {
+    int mask = slots.length - 1;
+    int slot = hash(kind, ops) & mask;
+    while(slots[slot] != 0) {
+      int id = slots[slot] - 1;
+      if(kinds[id] == kind && Arrays.equals(operands[id], ops)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if(size == kinds.length) {
+      grow();
+      return intern(kind, ops, literals);
+    }
+    int id = size++;
+    kinds[id] = kind;
+    operands[id] = ops;
+    numLiterals[id] = literals;
+    negations[id] = CONSTANT;
+    slots[slot] = id + 1;
+    return id;
+  }
+
+  /* Doubles the number of expressions the table has room for and rehashes the
+   * existing expressions */
+  private void grow() {
+    int capacity = 2*kinds.length;
+    kinds = Arrays.copyOf(kinds, capacity);
+    operands = Arrays.copyOf(operands, capacity);
+    numLiterals = Arrays.copyOf(numLiterals, capacity);
+    negations = Arrays.copyOf(negations, capacity);
+    slots = new int[2*capacity];
+    int mask = slots.length - 1;
+    for(int id = 0; id < size; id++) {
+      int slot = hash(kinds[id], operands[id]) & mask;
+      while(slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  /* Returns the hash of an expression of the specified kind and operands */
+  private static int hash(int kind, int[] ops) {
+    int hash = kind;
+    for(int op : ops) {
+      hash = 0x9e3779b9*hash + op;
+    }
+    // Mix every bit into the low bits used to index the slots, ids are small
+    // consecutive integers that would otherwise fill runs of adjacent slots
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -0,0 +1,335 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/* Typed representation of the decision boundary of a SplitCondition. Nodes are
+ * immutable, so they can be shared between conditions and inspected by the code
+ * that builds, evaluates or prints them. Each node can be evaluated on a single
+ * record, on a range of rows of a list of records, or on a whole list of records
+ * into a bitset with one bit per record. Nodes are serializable so that trees
+ * can be saved in checkpoints */
+public abstract class ConditionNode implements Serializable {
+
+  /* Version of the serialized form, changed whenever the fields change */
+  private static final long serialVersionUID = 1L;
+
+  /* Returns whether the specified record satisfies this node */
+  public abstract boolean test(Record record);
+
+  /* Returns how complex/compounded this node is */
+  public abstract int getRank();
+
+  /* Stores in the specified array whether each of the specified list's records
+   * with an index in [from, to) satisfies this node, at its index minus from */
+  public void evaluate(List<Record> records, int from, int to, boolean[] results) {
+    int i = 0;
+    for(Record record : records.subList(from, to)) {
+      results[i++] = test(record);
+    }
+  }
+
+  /* Returns a bitset with the bit for each of the specified records set if it
+   * satisfies this node. Bits past the last record are clear */
+  public long[] evaluate(List<Record> records) {
+    long[] bits = new long[numWords(records.size())];
+    int i = 0;
+    for(Record record : records) {
+      if(test(record)) {
+        bits[i >>> 6] |= 1L << i;
+      }
+      i++;
+    }
+    return bits;
+  }
+
+  /* Returns a node that is the logical negation of this node */
+  public ConditionNode negate() {
+    return new Not(this);
+  }
+
+  /* Returns the number of 64 bit words needed for a bitset over the specified
+   * number of records */
+  public static int numWords(int numRecords) {
+    return (numRecords + 63) >>> 6;
+  }
+
+  /* Clears the bits of the specified bitset past the specified number of records */
+  private static void clearTail(long[] bits, int numRecords) {
+    if((numRecords & 63) != 0) {
+      bits[bits.length-1] &= (1L << numRecords) - 1;
+    }
+  }
+
+  /* Tests whether a single feature is less than a threshold */
+  public static class Threshold extends ConditionNode {
+    private static final long serialVersionUID = 1L;
+
+    private final int feature;
+    private final double threshold;
+
+    /* Constructor */
+    public Threshold(int feature, double threshold) {
+      this.feature = feature;
+      this.threshold = threshold;
+    }
+
+    /* Accessor for feature */
+    public int getFeature() {
+      return feature;
+    }
+
+    /* Accessor for threshold */
+    public double getThreshold() {
+      return threshold;
+    }
+
+    public boolean test(Record record) {
+      return record.getOrDefault(feature) < threshold;
+    }
+
+    public int getRank() {
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("x[%d] < %2.2f", feature, threshold);
+    }
+  }
+
+  /* Tests whether a weighted sum of features minus a bias is negative. The weights
+   * are stored sparsely, sorted by feature with zero weights dropped, and the sum
+   * is taken over whichever of the weights and the record's features is smaller */
+  public static class Linear extends ConditionNode {
+    private static final long serialVersionUID = 1L;
+
+    /* Ratio between the sizes of the two sides at which iterating over the smaller
+     * side with lookups into the larger beats a merge-join of both */
+    private static final int LOOKUP_RATIO = 8;
+    private final int[] features;
+    private final double[] weights;
+    private final double bias;
+
+    /* Constructor, features with a zero weight are dropped */
+    public Linear(int[] features, double[] weights, double bias) {
+      if(features.length != weights.length) {
+        throw new RuntimeException("Number of weights does not equal the number of features.");
+      }
+      Integer[] order = new Integer[features.length];
+      int size = 0;
+      for(int i = 0; i < features.length; i++) {
+        if(weights[i] != 0) {
+          order[size++] = i;
+        }
+      }
+      order = Arrays.copyOf(order, size);
+      Arrays.sort(order, (a, b) -> Integer.compare(features[a], features[b]));
+      this.features = new int[size];
+      this.weights = new double[size];
+      for(int i = 0; i < size; i++) {
+        this.features[i] = features[order[i]];
+        this.weights[i] = weights[order[i]];
+        if(i > 0 && this.features[i] == this.features[i-1]) {
+          throw new RuntimeException("Duplicate feature in a linear condition.");
+        }
+      }
+      this.bias = bias;
+    }
+
+    /* Accessor for bias */
+    public double getBias() {
+      return bias;
+    }
+
+    /* Returns the number of features with a weight */
+    public int size() {
+      return features.length;
+    }
+
+    /* Returns the feature at the specified index */
+    public int getFeature(int index) {
+      return features[index];
+    }
+
+    /* Returns the weight at the specified index */
+    public double getWeight(int index) {
+      return weights[index];
+    }
+
+    /* Returns the weighted sum of the specified record's features. Terms are added
+     * in order of increasing feature whichever way the sum is taken */
+    public double project(Record record) {
+      if((long)features.length*LOOKUP_RATIO <= record.size()) {
+        double sum = 0;
+        for(int i = 0; i < features.length; i++) {
+          sum += weights[i] * record.getOrDefault(features[i]);
+        }
+        return sum;
+      }
+      Record.SortedRow row = record.getSortedRow();
+      if((long)row.features.length*LOOKUP_RATIO <= features.length) {
+        double sum = 0;
+        for(int j = 0; j < row.features.length; j++) {
+          int i = Arrays.binarySearch(features, row.features[j]);
+          if(i >= 0) {
+            sum += weights[i] * row.values[j];
+          }
+        }
+        return sum;
+      }
+      return mergeJoin(row);
+    }
+
+    /* Returns the weighted sum of the features of the specified sorted row by
+     * walking it and the weights together */
+    private double mergeJoin(Record.SortedRow row) {
+      double sum = 0;
+      int i = 0;
+      int j = 0;
+      while(i < features.length && j < row.features.length) {
+        if(features[i] < row.features[j]) {
+          i++;
+        } else if(features[i] > row.features[j]) {
+          j++;
+        } else {
+          sum += weights[i++] * row.values[j++];
+        }
+      }
+      return sum;
+    }
+
+    public boolean test(Record record) {
+      return project(record) - bias < 0;
+    }
+
+    public int getRank() {
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      String desc = "";
+      for(int i = 0; i < features.length; i++) {
+        desc += String.format("%.5f x[%d] + ", weights[i], features[i]);
+      }
+      return desc + String.format("%.5f < 0", -1 * bias);
+    }
+  }
+
+  /* Logical negation of a node */
+  public static class Not extends ConditionNode {
+    private static final long serialVersionUID = 1L;
+
+    private final ConditionNode operand;
+
+    /* Constructor */
+    public Not(ConditionNode operand) {
+      this.operand = operand;
+    }
+
+    /* Accessor for operand */
+    public ConditionNode getOperand() {
+      return operand;
+    }
+
+    public boolean test(Record record) {
+      return !operand.test(record);
+    }
+
+    public int getRank() {
+      return operand.getRank();
+    }
+
+    @Override
+    public ConditionNode negate() {
+      return operand;
+    }
+
+    @Override
+    public void evaluate(List<Record> records, int from, int to, boolean[] results) {
+      operand.evaluate(records, from, to, results);
+      for(int i = 0; i < to-from; i++) {
+        results[i] = !results[i];
+      }
+    }
+
+    @Override
+    public long[] evaluate(List<Record> records) {
+      long[] bits = operand.evaluate(records);
+      for(int w = 0; w < bits.length; w++) {
+        bits[w] = ~bits[w];
+      }
+      clearTail(bits, records.size());
+      return bits;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("!(%s)", operand);
+    }
+  }
+
+  /* Logical AND or OR of two nodes */
+  public static class Binary extends ConditionNode {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean and;
+    private final ConditionNode left;
+    private final ConditionNode right;
+
+    /* Constructor, the nodes are combined with AND if and is true, otherwise OR */
+    public Binary(boolean and, ConditionNode left, ConditionNode right) {
+      this.and = and;
+      this.left = left;
+      this.right = right;
+    }
+
+    /* Returns whether the operands are combined with AND rather than OR */
+    public boolean isAnd() {
+      return and;
+    }
+
+    /* Accessor for left */
+    public ConditionNode getLeft() {
+      return left;
+    }
+
+    /* Accessor for right */
+    public ConditionNode getRight() {
+      return right;
+    }
+
+    public boolean test(Record record) {
+      return and ? (left.test(record) && right.test(record)) : (left.test(record) || right.test(record));
+    }
+
+    public int getRank() {
+      return left.getRank() + right.getRank();
+    }
+
+    @Override
+    public void evaluate(List<Record> records, int from, int to, boolean[] results) {
+      boolean[] rightResults = new boolean[to-from];
+      left.evaluate(records, from, to, results);
+      right.evaluate(records, from, to, rightResults);
+      for(int i = 0; i < to-from; i++) {
+        results[i] = and ? (results[i] && rightResults[i]) : (results[i] || rightResults[i]);
+      }
+    }
+
+    @Override
+    public long[] evaluate(List<Record> records) {
+      long[] bits = left.evaluate(records);
+      long[] rightBits = right.evaluate(records);
+      for(int w = 0; w < bits.length; w++) {
+        bits[w] = and ? (bits[w] & rightBits[w]) : (bits[w] | rightBits[w]);
+      }
+      return bits;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(and ? "(%s)&&(%s)" : "(%s)||(%s)", left, right);
+    }
+  }
+}
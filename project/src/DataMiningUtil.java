@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.Scanner;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,6 +13,11 @@ import java.util.Collection;
 import java.util.Random;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /* Utility class that contains methods that help with solving data mining problems */
 public class DataMiningUtil {
@@ -169,6 +175,78 @@ public class DataMiningUtil {
     return getStratifiedGroups(instances, numGroups, classes, rand);
   }
 
+  /* Runs the specified tasks on a pool of the specified number of threads, waits
+   * for all of them to finish and returns their results in the order of the tasks.
+   * Throws an IllegalStateException if any of the tasks threw */
+  public static <T> List<T> runTasks(Collection<? extends Callable<T>> tasks, int numThreads) {
+    ExecutorService taskExecutor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<T> results = new ArrayList<>(tasks.size());
+      for(Future<T> future : taskExecutor.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      taskExecutor.shutdown();
+    }
+  }
+
+  /* Sorts the specified range of the values into ascending order, as ordered by
+   * Double.compare, moving each companion along with its value. The sort is stable,
+   * so equal values keep their companions in their original order */
+  public static void sortTogether(double[] values, int[] companions, int from, int to) {
+    if(to - from < 2) {
+      return;
+    }
+    double[] valueScratch = Arrays.copyOfRange(values, from, to);
+    int[] companionScratch = Arrays.copyOfRange(companions, from, to);
+    // Both copies hold the range, the sorted result ends up in the originals
+    mergeSort(valueScratch, companionScratch, values, companions, from, to, from);
+  }
+
+  /* Sorts the specified range of the source arrays into the same range of the
+   * destination arrays, whose elements initially match the source's. The source
+   * arrays are indexed from the specified offset */
+  private static void mergeSort(double[] srcValues, int[] srcCompanions, double[] values, int[] companions, int from, int to, int offset) {
+    if(to - from <= 16) {
+      // Insertion sort, which is stable
+      for(int i = from + 1; i < to; i++) {
+        double value = values[i];
+        int companion = companions[i];
+        int j = i - 1;
+        while(j >= from && Double.compare(values[j], value) > 0) {
+          values[j+1] = values[j];
+          companions[j+1] = companions[j];
+          j--;
+        }
+        values[j+1] = value;
+        companions[j+1] = companion;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    // Sort each half into the source so it can be merged into the destination
+    mergeSort(values, companions, srcValues, srcCompanions, from - offset, mid - offset, -offset);
+    mergeSort(values, companions, srcValues, srcCompanions, mid - offset, to - offset, -offset);
+    int i = from - offset;
+    int j = mid - offset;
+    int end1 = mid - offset;
+    int end2 = to - offset;
+    for(int k = from; k < to; k++) {
+      if(j >= end2 || (i < end1 && Double.compare(srcValues[i], srcValues[j]) <= 0)) {
+        values[k] = srcValues[i];
+        companions[k] = srcCompanions[i++];
+      } else {
+        values[k] = srcValues[j];
+        companions[k] = srcCompanions[j++];
+      }
+    }
+  }
+
   /* Calculates the median value for the list of doubles */
   public static double median(List<Double> values) {
     List<Double> copy = new ArrayList<>(values);
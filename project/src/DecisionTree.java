@@ -1,19 +1,21 @@
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 /* A trained decision tree used for classifying records. */
 public class DecisionTree extends Classifier {
 
-  /* Maps each different class label to a different integer index. */
-  private final HashMap<String, Integer> classIndexMap;
-  /* Stores that class label at the index it is associated with */
-  private final String[] indexClassMap;
+  /* Table that the class codes of the training records are interned in */
+  private final LabelTable labelTable;
+  /* Number of different class codes in the label table */
+  private final int numClasses;
   /* Class returned if a node is empty. */
-  private final String defaultClass;
+  private final int defaultClass;
   /* Maximum number of records reaching the node that can be from a different
    * class for the node to still be considered homogeneous.*/
   private final int maxNonHomogenuousRecords;
@@ -23,50 +25,347 @@ public class DecisionTree extends Classifier {
   private final SplitStrategy splitStrategy;
   /* The records used to train this tree */
   private final List<Record> trainingRecords;
+  /* Limits on best-first growth, null if the tree is grown depth first */
+  private final GrowthLimits growthLimits;
+  /* Saves checkpoints of the tree while it grows, null if none are taken */
+  private final TrainingCheckpoint.Writer checkpoints;
+  /* Position of each training record in trainingRecords, null if no checkpoints
+   * are taken */
+  private final IdentityHashMap<Record, Integer> rowIndices;
   /* References this tree so that inner class can pass it to the splitStrategy */
   private final DecisionTree tree;
 
-  /* Constructor */
-  public DecisionTree(List<Record> records, int maxNonHomogenuousRecords, SplitStrategy splitStrategy) {
+  /* Constructor, grows the tree depth first */
+  public DecisionTree(List<Record> records, LabelTable labelTable, int maxNonHomogenuousRecords, SplitStrategy splitStrategy) {
+    this(records, labelTable, maxNonHomogenuousRecords, splitStrategy, null);
+  }
+
+  /* Constructor, grows the tree best first within the specified limits, or depth
+   * first if they are null */
+  public DecisionTree(List<Record> records, LabelTable labelTable, int maxNonHomogenuousRecords, SplitStrategy splitStrategy, GrowthLimits growthLimits) {
+    this(records, labelTable, maxNonHomogenuousRecords, splitStrategy, growthLimits, null);
+  }
+
+  /* Constructor, grows the tree best first within the specified limits, or depth
+   * first if they are null. If the specified checkpoint writer is not null, growth
+   * resumes from the checkpoint it loaded if there is one, and the tree is saved to
+   * it periodically while it grows and once it is grown */
+  public DecisionTree(List<Record> records, LabelTable labelTable, int maxNonHomogenuousRecords, SplitStrategy splitStrategy, GrowthLimits growthLimits, TrainingCheckpoint.Writer checkpoints) {
     this.tree = this;
     this.trainingRecords = records;
-    this.classIndexMap = new HashMap<>();
+    this.labelTable = labelTable;
+    this.numClasses = labelTable.size();
     this.splitStrategy = splitStrategy;
+    splitStrategy.setNumClasses(numClasses);
+    this.defaultClass = getMostFrequentClass(records);
+    this.maxNonHomogenuousRecords = maxNonHomogenuousRecords;
+    this.growthLimits = growthLimits;
+    this.checkpoints = checkpoints;
+    this.rowIndices = (checkpoints == null) ? null : getRowIndices(records);
+    if(growthLimits == null) {
+      this.root = growDepthFirst(records);
+    } else {
+      this.root = growBestFirst(records);
+    }
+  }
+
+  /* Grows a tree from the specified records depth first, splitting each node until
+   * it is homogeneous, and returns its root. The nodes waiting to be split are kept
+   * on a stack with the child holding the records that passed its parent's
+   * condition on top, so nodes are split in the same order as by recursion */
+  private DecisionNode growDepthFirst(List<Record> records) {
+    long start = System.nanoTime();
+    ArrayList<Pending> stack = new ArrayList<>();
+    TrainingCheckpoint resumed = (checkpoints == null) ? null : checkpoints.getResumed();
+    DecisionNode root;
+    if(resumed == null) {
+      root = new DecisionNode(getClassFreqs(records));
+      stack.add(new Pending(root, records, SplitContext.root()));
+    } else {
+      start -= resumed.getElapsedNanos();
+      root = restore(resumed, stack, null);
+    }
+    while(!stack.isEmpty()) {
+      if(checkpoints != null && checkpoints.isDue()) {
+        saveCheckpoint(root, stack, null, System.nanoTime() - start, 0);
+      }
+      Pending pending = stack.remove(stack.size()-1);
+      DecisionNode node = pending.node;
+      if(pending.records.isEmpty() || getNumberMisclassified(pending.records) <= maxNonHomogenuousRecords) {
+        continue;
+      }
+      SplitCondition splitCondition = splitStrategy.selectSplitCondition(pending.records, tree, pending.context);
+      if(splitCondition == null) {
+        continue;
+      }
+      List<Record> trueRecords = new ArrayList<>(pending.records);
+      List<Record> falseRecords  = splitOnCondition(splitCondition, trueRecords);
+      // A condition that does not separate the records leaves the node a leaf, but
+      // its children are still grown
+      node.splitCondition = splitCondition;
+      if(trueRecords.size() > 0 && falseRecords.size() > 0) {
+        node.leafClass = Record.NO_CLASS;
+      }
+      node.leftChild = new DecisionNode(getClassFreqs(trueRecords));
+      node.rightChild = new DecisionNode(getClassFreqs(falseRecords));
+      stack.add(new Pending(node.rightChild, falseRecords, pending.context.child(splitCondition, false)));
+      stack.add(new Pending(node.leftChild, trueRecords, pending.context.child(splitCondition, true)));
+    }
+    if(checkpoints != null) {
+      saveCheckpoint(root, stack, null, System.nanoTime() - start, 0);
+    }
+    return root;
+  }
+
+  /* A node of a depth-first frontier and the records reaching it */
+  private static class Pending {
+    final DecisionNode node;
+    final List<Record> records;
+    final SplitContext context;
+
+    Pending(DecisionNode node, List<Record> records, SplitContext context) {
+      this.node = node;
+      this.records = records;
+      this.context = context;
+    }
+  }
+
+  /* Grows a tree from the specified records by repeatedly splitting the frontier
+   * node whose split gives the largest reduction in weighted Gini impurity, and
+   * returns its root. Each node's split is selected when the node joins the
+   * frontier, unless the tree already has as many leaves as allowed. Ties go to
+   * the node that joined first. Unlike depth-first growth, splits that do not
+   * reduce the impurity or that leave one side empty are never made, so even
+   * unlimited best-first trees can be smaller than depth-first ones */
+  private DecisionNode growBestFirst(List<Record> records) {
+    long start = System.nanoTime();
+    double rootWeight = Math.max(1, Record.getTotalWeight(records));
+    PriorityQueue<Expansion> frontier = new PriorityQueue<>((a, b) -> (a.gain != b.gain) ? Double.compare(b.gain, a.gain) : Long.compare(a.seq, b.seq));
+    TrainingCheckpoint resumed = (checkpoints == null) ? null : checkpoints.getResumed();
+    DecisionNode root;
+    long seq = 0;
+    long deadline;
+    if(resumed == null) {
+      deadline = growthLimits.getDeadline(start);
+      root = new DecisionNode(getClassFreqs(records));
+      Expansion expansion = selectExpansion(root, records, SplitContext.root(), rootWeight, deadline, seq++);
+      if(expansion != null) {
+        frontier.add(expansion);
+      }
+    } else {
+      start -= resumed.getElapsedNanos();
+      deadline = growthLimits.getDeadline(start);
+      root = restore(resumed, null, frontier);
+      seq = resumed.getNextSeq();
+    }
+    int numLeaves = root.getAllLeaves().size();
+    while(!frontier.isEmpty() && growthLimits.allowsLeaves(numLeaves) && System.nanoTime() < deadline) {
+      if(checkpoints != null && checkpoints.isDue()) {
+        saveCheckpoint(root, null, frontier, System.nanoTime() - start, seq);
+      }
+      Expansion best = frontier.poll();
+      DecisionNode node = best.node;
+      node.splitCondition = best.condition;
+      node.leafClass = Record.NO_CLASS;
+      node.leftChild = new DecisionNode(getClassFreqs(best.trueRecords));
+      node.rightChild = new DecisionNode(getClassFreqs(best.falseRecords));
+      numLeaves++;
+      if(!growthLimits.allowsLeaves(numLeaves)) {
+        break;
+      }
+      SplitContext trueContext = best.context.child(best.condition, true);
+      SplitContext falseContext = best.context.child(best.condition, false);
+      Expansion left = selectExpansion(node.leftChild, best.trueRecords, trueContext, rootWeight, deadline, seq++);
+      Expansion right = selectExpansion(node.rightChild, best.falseRecords, falseContext, rootWeight, deadline, seq++);
+      if(left != null) {
+        frontier.add(left);
+      }
+      if(right != null) {
+        frontier.add(right);
+      }
+    }
+    if(checkpoints != null) {
+      saveCheckpoint(root, null, frontier, System.nanoTime() - start, seq);
+    }
+    return root;
+  }
+
+  /* Returns the split of the specified leaf, reached by the specified records, that
+   * would be made if it were expanded, or null if the leaf should not be split */
+  private Expansion selectExpansion(DecisionNode leaf, List<Record> records, SplitContext context, double rootWeight, long deadline, long seq) {
+    if(records.isEmpty() || getNumberMisclassified(records) <= maxNonHomogenuousRecords
+        || !growthLimits.allowsDepth(context.getDepth()) || System.nanoTime() >= deadline) {
+      return null;
+    }
+    SplitCondition condition = splitStrategy.selectSplitCondition(records, tree, context);
+    if(condition == null) {
+      return null;
+    }
+    List<Record> trueRecords = new ArrayList<>(records);
+    List<Record> falseRecords = splitOnCondition(condition, trueRecords);
+    if(trueRecords.isEmpty() || falseRecords.isEmpty()) {
+      return null;
+    }
+    double gain = (weightedImpurity(leaf.classFreqs) - weightedImpurity(getClassFreqs(trueRecords))
+                   - weightedImpurity(getClassFreqs(falseRecords)))/rootWeight;
+    if(!growthLimits.allowsGain(gain)) {
+      return null;
+    }
+    return new Expansion(leaf, condition, context, trueRecords, falseRecords, gain, seq);
+  }
+
+  /* Returns the Gini impurity of the specified class frequencies multiplied by
+   * their total */
+  private static double weightedImpurity(int[] classFreqs) {
+    return sumArray(classFreqs)*SplitStrategy.getGiniImpurity(classFreqs);
+  }
+
+  /* A split of a frontier node and the records on each side of it */
+  private static class Expansion {
+    final DecisionNode node;
+    final SplitCondition condition;
+    final SplitContext context;
+    final List<Record> trueRecords;
+    final List<Record> falseRecords;
+    final double gain;
+    final long seq;
+
+    Expansion(DecisionNode node, SplitCondition condition, SplitContext context, List<Record> trueRecords, List<Record> falseRecords, double gain, long seq) {
+      this.node = node;
+      this.condition = condition;
+      this.context = context;
+      this.trueRecords = trueRecords;
+      this.falseRecords = falseRecords;
+      this.gain = gain;
+      this.seq = seq;
+    }
+  }
+
+  /* Saves a checkpoint of the tree rooted at the specified node and of its
+   * frontier, given by whichever of the specified stack of a tree grown depth first
+   * and expansions of a tree grown best first is not null. The checkpoint is taken
+   * the specified number of nanoseconds after growth started */
+  private void saveCheckpoint(DecisionNode root, List<Pending> stack, Collection<Expansion> expansions, long elapsedNanos, long nextSeq) {
+    ArrayList<DecisionNode> nodes = new ArrayList<>();
+    HashMap<DecisionNode, Integer> indices = new HashMap<>();
+    nodes.add(root);
+    for(int i = 0; i < nodes.size(); i++) {
+      DecisionNode node = nodes.get(i);
+      indices.put(node, i);
+      if(node.leftChild != null) {
+        nodes.add(node.leftChild);
+        nodes.add(node.rightChild);
+      }
+    }
+    ArrayList<TrainingCheckpoint.Node> savedNodes = new ArrayList<>(nodes.size());
+    for(DecisionNode node : nodes) {
+      int trueChild = (node.leftChild == null) ? -1 : indices.get(node.leftChild);
+      int falseChild = (node.rightChild == null) ? -1 : indices.get(node.rightChild);
+      savedNodes.add(new TrainingCheckpoint.Node(node.classFreqs, node.leafClass, node.splitCondition, trueChild, falseChild));
+    }
+    ArrayList<TrainingCheckpoint.Entry> frontier = new ArrayList<>();
+    if(stack != null) {
+      for(Pending pending : stack) {
+        frontier.add(new TrainingCheckpoint.Entry(indices.get(pending.node), pending.context, getRows(pending.records), null, null, null, 0, 0));
+      }
+    }
+    if(expansions != null) {
+      for(Expansion expansion : expansions) {
+        frontier.add(new TrainingCheckpoint.Entry(indices.get(expansion.node), expansion.context, null, expansion.condition,
+                                                  getRows(expansion.trueRecords), getRows(expansion.falseRecords), expansion.gain, expansion.seq));
+      }
+    }
+    checkpoints.write(elapsedNanos, nextSeq, splitStrategy.getBudgetProgress(tree), savedNodes, frontier);
+  }
+
+  /* Rebuilds the tree saved in the specified checkpoint and returns its root. The
+   * nodes of the checkpoint's frontier are added to whichever of the specified stack
+   * of a tree grown depth first and expansions of a tree grown best first is not
+   * null, in the order they were saved in. The split strategy's budget continues
+   * from where it was when the checkpoint was taken */
+  private DecisionNode restore(TrainingCheckpoint checkpoint, List<Pending> stack, Collection<Expansion> expansions) {
+    ArrayList<TrainingCheckpoint.Node> savedNodes = checkpoint.getNodes();
+    DecisionNode[] nodes = new DecisionNode[savedNodes.size()];
+    for(int i = 0; i < nodes.length; i++) {
+      nodes[i] = new DecisionNode(savedNodes.get(i).classFreqs);
+    }
+    for(int i = 0; i < nodes.length; i++) {
+      TrainingCheckpoint.Node saved = savedNodes.get(i);
+      nodes[i].leafClass = saved.leafClass;
+      nodes[i].splitCondition = saved.condition;
+      if(saved.trueChild != -1) {
+        nodes[i].leftChild = nodes[saved.trueChild];
+        nodes[i].rightChild = nodes[saved.falseChild];
+      }
+    }
+    for(TrainingCheckpoint.Entry entry : checkpoint.getFrontier()) {
+      if((entry.rows != null) != (stack != null)) {
+        throw new RuntimeException("Checkpoint was taken of a tree grown in a different order.");
+      }
+      if(stack != null) {
+        stack.add(new Pending(nodes[entry.node], getRecords(entry.rows), entry.getContext()));
+      } else {
+        expansions.add(new Expansion(nodes[entry.node], entry.condition, entry.getContext(), getRecords(entry.trueRows),
+                                     getRecords(entry.falseRows), entry.gain, entry.seq));
+      }
+    }
+    splitStrategy.restoreBudgetProgress(tree, checkpoint.getBudgetProgress());
+    return nodes[0];
+  }
+
+  /* Returns a map from each of the specified records to its position in the list */
+  private static IdentityHashMap<Record, Integer> getRowIndices(List<Record> records) {
+    IdentityHashMap<Record, Integer> rowIndices = new IdentityHashMap<>();
+    int row = 0;
     for(Record record : records) {
-      this.classIndexMap.putIfAbsent(record.getClassLabel(), classIndexMap.size());
+      rowIndices.put(record, row++);
     }
-    splitStrategy.setClassIndexMap(classIndexMap);
-    this.indexClassMap = new String[classIndexMap.size()];
-    for(String key : classIndexMap.keySet()) {
-      this.indexClassMap[classIndexMap.get(key)] = key;
+    return rowIndices;
+  }
+
+  /* Returns the positions in the training records of the specified records */
+  private int[] getRows(List<Record> records) {
+    int[] rows = new int[records.size()];
+    for(int i = 0; i < rows.length; i++) {
+      rows[i] = rowIndices.get(records.get(i));
     }
-    this.defaultClass = getMostFrequentLabel(records);
-    this.maxNonHomogenuousRecords = maxNonHomogenuousRecords;
-    this.root = new DecisionNode(records);
+    return rows;
   }
 
-  /* Classifies a single training instance and returns a string representation of
-   * that calculated class */
-  public String classify(Record record) {
+  /* Returns the training records at the specified positions */
+  private ArrayList<Record> getRecords(int[] rows) {
+    ArrayList<Record> records = new ArrayList<>(rows.length);
+    for(int row : rows) {
+      records.add(trainingRecords.get(row));
+    }
+    return records;
+  }
+
+  /* Classifies a single training instance and returns the code of that calculated
+   * class */
+  @Override
+  public int classifyCode(Record record) {
     return root.classify(record);
   }
 
+  /* Accessor for labelTable */
+  @Override
+  public LabelTable getLabelTable() {
+    return labelTable;
+  }
+
   /* Returns the frequencies of the different classes found in the specified list
    * of records */
   private int[] getClassFreqs(List<Record> records) {
-    int[] classFreqs = new int[classIndexMap.size()];
-    for(Record record : records) {
-      classFreqs[classIndexMap.get(record.getClassLabel())]++;
-    }
-    return classFreqs;
+    return getClassFreqs(records, numClasses);
   }
 
   /* Returns the frequencies of the different classes found in the specified list
-   * of records */
-  public static int[] getClassFreqs(List<Record> records, HashMap<String, Integer> classIndexMap) {
-    int[] classFreqs = new int[classIndexMap.size()];
+   * of records, counting each record as many times as its weight */
+  public static int[] getClassFreqs(List<Record> records, int numClasses) {
+    int[] classFreqs = new int[numClasses];
     for(Record record : records) {
-      classFreqs[classIndexMap.get(record.getClassLabel())]++;
+      classFreqs[record.getClassCode()] += record.getWeight();
     }
     return classFreqs;
   }
@@ -89,37 +388,42 @@ public class DecisionTree extends Classifier {
     return sum;
   }
 
-  /* Returns the class label with the highest frequency in the specified list of
-   * records */
-  private String getMostFrequentLabel(List<Record> records) {
+  /* Returns the code of the class with the highest frequency in the specified list
+   * of records */
+  private int getMostFrequentClass(List<Record> records) {
     int[] classFreqs = getClassFreqs(records);
-    return indexClassMap[getIndexOfMax(classFreqs)];
+    return getIndexOfMax(classFreqs);
   }
 
-  /* Returns the number of records not from the majority class in the specified list */
+  /* Returns the total weight of the records not from the majority class in the
+   * specified list */
   private int getNumberMisclassified(List<Record> records) {
     int[] classFreqs = getClassFreqs(records);
     return sumArray(classFreqs) - classFreqs[getIndexOfMax(classFreqs)];
   }
 
-  /* Removes all records from the specified list that do not contain the specified feature
-   * and adds them to the returned list */
+  /* Removes all records from the specified list that do not pass the specified condition
+   * and adds them to the returned list. The condition is evaluated over the whole
+   * list at once and the passing records are compacted in place */
   private static ArrayList<Record> splitOnCondition(SplitCondition splitCondition, List<Record> records) {
-    Iterator<Record> it = records.iterator();
+    long[] passed = splitCondition.testAll(records);
     ArrayList<Record> falseRecords = new ArrayList<>();
-    while(it.hasNext()) {
-      Record record = it.next();
-      if(!splitCondition.test(record)) {
-        it.remove();
+    int kept = 0;
+    for(int i = 0; i < records.size(); i++) {
+      Record record = records.get(i);
+      if((passed[i >>> 6] & (1L << i)) != 0) {
+        records.set(kept++, record);
+      } else {
         falseRecords.add(record);
       }
     }
+    records.subList(kept, records.size()).clear();
     return falseRecords;
   }
 
-  /* Accessor for classIndexMap */
-  public HashMap<String, Integer> getClassIndexMap() {
-    return classIndexMap;
+  /* Accessor for numClasses */
+  public int getNumClasses() {
+    return numClasses;
   }
 
   /* Accessor for trainingRecords */
@@ -136,7 +440,7 @@ public class DecisionTree extends Classifier {
     List<Record> reservedRecords = selectReservedRecords(trainingRecords, reservePortionDenom, rand);
     List<Record> remainingRecords = new ArrayList<>(trainingRecords);
     remainingRecords.removeAll(reservedRecords);
-    DecisionTree alphaSelectTree = new DecisionTree(remainingRecords, maxNonHomogenuousRecords, splitStrategy);
+    DecisionTree alphaSelectTree = new DecisionTree(remainingRecords, labelTable, maxNonHomogenuousRecords, splitStrategy, growthLimits);
     double alpha = selectAlpha(alphaSelectTree, reservedRecords);
     pruneTree(alpha);
   }
@@ -145,7 +449,7 @@ public class DecisionTree extends Classifier {
   private void pruneTree(double selectedAlpha) {
     ArrayList<DecisionNode> pruneNodes = new ArrayList<>();
     ArrayList<Double> alphas = new ArrayList<>();
-    while(root.leafLabel == null) {
+    while(!root.isLeaf()) {
       double minAlpha = -1;
       DecisionNode pruneNode = null;
       for(DecisionNode node : root.getAllNonLeaves()) {
@@ -181,7 +485,7 @@ public class DecisionTree extends Classifier {
     ArrayList<DecisionNode> pruneNodes = new ArrayList<>();
     ArrayList<Integer> correctPredictions = new ArrayList<>();
     ArrayList<Double> alphas = new ArrayList<>();
-    while(root.leafLabel == null) {
+    while(!root.isLeaf()) {
       double minAlpha = -1;
       DecisionNode pruneNode = null;
       for(DecisionNode node : root.getAllNonLeaves()) {
@@ -213,27 +517,54 @@ public class DecisionTree extends Classifier {
 
   /* Returns a portion of specified records to reserve */
   private static List<Record> selectReservedRecords(List<Record> records, int reservePortionDenom, Random rand) {
-    ArrayList<String> classLabels = new ArrayList<>();
+    ArrayList<Integer> classCodes = new ArrayList<>();
     for(Record record : records) {
-      classLabels.add(record.getClassLabel());
+      classCodes.add(record.getClassCode());
     }
-    ArrayList<ArrayList<Record>> groups = DataMiningUtil.getStratifiedGroups(records, reservePortionDenom, classLabels, rand);
+    ArrayList<ArrayList<Record>> groups = DataMiningUtil.getStratifiedGroups(records, reservePortionDenom, classCodes, rand);
     return groups.get(0);
   }
 
-  /* Returns the number of records that the specified decision tree correctly classifies
-   * from the specified records */
+  /* Returns the total weight of the records that the specified decision tree
+   * correctly classifies from the specified records */
   private static int calculateCorrectPredictions(DecisionTree decisionTree, List<Record> reservedRecords) {
     int correctPredictions = 0;
     for(Record reservedRecord : reservedRecords) {
-      String prediction = decisionTree.classify(reservedRecord);
-      if(prediction.equals(reservedRecord.getClassLabel())) {
-        correctPredictions++;
+      if(decisionTree.classifyCode(reservedRecord) == reservedRecord.getClassCode()) {
+        correctPredictions += reservedRecord.getWeight();
       }
     }
     return correctPredictions;
   }
 
+  /* Returns the current structure of this tree as a FlatTree, which holds none of
+   * the training records or class frequencies of the nodes */
+  public FlatTree flatten() {
+    ArrayList<DecisionNode> nodes = new ArrayList<>();
+    nodes.add(root);
+    for(int i = 0; i < nodes.size(); i++) {
+      DecisionNode node = nodes.get(i);
+      if(!node.isLeaf()) {
+        nodes.add(node.leftChild);
+        nodes.add(node.rightChild);
+      }
+    }
+    FlatTree flat = new FlatTree(nodes.size());
+    int next = 1;
+    for(int i = 0; i < nodes.size(); i++) {
+      DecisionNode node = nodes.get(i);
+      if(node.isLeaf()) {
+        flat.leafClass[i] = node.leafClass;
+      } else {
+        flat.leafClass[i] = Record.NO_CLASS;
+        flat.conditions[i] = node.splitCondition;
+        flat.trueChild[i] = next++;
+        flat.falseChild[i] = next++;
+      }
+    }
+    return flat;
+  }
+
   /* Creates lists containing the string representations of nodes at each level
    of the tree */
   private ArrayList<ArrayList<ArrayList<String>>> getBFSStrings() {
@@ -308,6 +639,107 @@ public class DecisionTree extends Classifier {
     DataMiningUtil.writeToFile(lines, filename);
   }
 
+  /* A trained tree's nodes stored in arrays indexed by node in breadth-first order,
+   * with the root at index 0 */
+  public static class FlatTree {
+    /* Condition each internal node is split on, null for leaves */
+    private final SplitCondition[] conditions;
+    /* Index of the child holding the records that pass each internal node's
+     * condition */
+    private final int[] trueChild;
+    /* Index of the child holding the records that fail each internal node's
+     * condition */
+    private final int[] falseChild;
+    /* Class code of each leaf, Record.NO_CLASS for internal nodes */
+    private final int[] leafClass;
+
+    /* Constructor */
+    private FlatTree(int numNodes) {
+      this.conditions = new SplitCondition[numNodes];
+      this.trueChild = new int[numNodes];
+      this.falseChild = new int[numNodes];
+      this.leafClass = new int[numNodes];
+    }
+
+    /* Constructor, takes the arrays of a tree's nodes, indexed as described above */
+    public FlatTree(SplitCondition[] conditions, int[] trueChild, int[] falseChild, int[] leafClass) {
+      this.conditions = conditions;
+      this.trueChild = trueChild;
+      this.falseChild = falseChild;
+      this.leafClass = leafClass;
+    }
+
+    /* Returns the number of nodes in the tree */
+    public int getNumNodes() {
+      return leafClass.length;
+    }
+
+    /* Classifies a single record and returns the code of the calculated class */
+    public int classifyCode(Record record) {
+      int node = 0;
+      while(leafClass[node] == Record.NO_CLASS) {
+        node = conditions[node].test(record) ? trueChild[node] : falseChild[node];
+      }
+      return leafClass[node];
+    }
+
+    /* Adds one to votes[i*numClasses + c] for each record i of the specified records,
+     * where c is the code of the class the record is classified as. Records are
+     * routed down the tree together, each node's condition being evaluated over
+     * all of the records reaching it at once */
+    public void vote(List<Record> records, int[] votes, int numClasses) {
+      ArrayList<int[]> rowStack = new ArrayList<>();
+      ArrayList<Integer> nodeStack = new ArrayList<>();
+      int[] allRows = new int[records.size()];
+      for(int i = 0; i < allRows.length; i++) {
+        allRows[i] = i;
+      }
+      rowStack.add(allRows);
+      nodeStack.add(0);
+      while(!nodeStack.isEmpty()) {
+        int node = nodeStack.remove(nodeStack.size()-1);
+        int[] rows = rowStack.remove(rowStack.size()-1);
+        if(leafClass[node] != Record.NO_CLASS) {
+          for(int row : rows) {
+            votes[row*numClasses + leafClass[node]]++;
+          }
+          continue;
+        }
+        List<Record> reaching = records;
+        if(rows.length < records.size()) {
+          reaching = new ArrayList<>(rows.length);
+          for(int row : rows) {
+            reaching.add(records.get(row));
+          }
+        }
+        long[] passed = conditions[node].testAll(reaching);
+        int numPassed = 0;
+        for(long word : passed) {
+          numPassed += Long.bitCount(word);
+        }
+        int[] trueRows = new int[numPassed];
+        int[] falseRows = new int[rows.length - numPassed];
+        int t = 0;
+        int f = 0;
+        for(int i = 0; i < rows.length; i++) {
+          if((passed[i >>> 6] & (1L << i)) != 0) {
+            trueRows[t++] = rows[i];
+          } else {
+            falseRows[f++] = rows[i];
+          }
+        }
+        if(trueRows.length > 0) {
+          nodeStack.add(trueChild[node]);
+          rowStack.add(trueRows);
+        }
+        if(falseRows.length > 0) {
+          nodeStack.add(falseChild[node]);
+          rowStack.add(falseRows);
+        }
+      }
+    }
+  }
+
   /* Represents a node in the decision tree */
   private class DecisionNode {
 
@@ -315,42 +747,31 @@ public class DecisionTree extends Classifier {
     DecisionNode leftChild;
     /* This node's right child. rightChild is null for leaf nodes */
     DecisionNode rightChild;
-    /* The label associated with this node. leafLabel is null for non-leaf nodes */
-    String leafLabel;
+    /* The class code associated with this node. leafClass is Record.NO_CLASS for
+     * non-leaf nodes */
+    int leafClass = Record.NO_CLASS;
     /* Condition used to split the records at this node */
     SplitCondition splitCondition;
     /* The frequencies of the classes of records reaching this node */
     int[] classFreqs;
 
-    /* Constructor */
-    DecisionNode(List<Record> reachingRecords) {
-      this.classFreqs = getClassFreqs(reachingRecords);
-      String tempLeafLabel = getMostFrequentLabel(reachingRecords);
-      if (reachingRecords.size() == 0) {
-        leafLabel = defaultClass;
-      } else if(getNumberMisclassified(reachingRecords) <= maxNonHomogenuousRecords) {
-        leafLabel = tempLeafLabel;
-      } else {
-        splitCondition = splitStrategy.selectSplitCondition(reachingRecords, tree);
-        if(splitCondition == null) {
-          leafLabel = tempLeafLabel;
-        } else {
-          List<Record> trueRecords = new ArrayList<>(reachingRecords);
-          List<Record> falseRecords  = splitOnCondition(splitCondition, trueRecords);
-          if(trueRecords.size() == 0 || falseRecords.size() == 0) {
-            leafLabel = tempLeafLabel;
-          }
-          leftChild = new DecisionNode(trueRecords);
-          rightChild = new DecisionNode(falseRecords);
-        }
-      }
+    /* Constructor, makes a leaf with the specified class frequencies of the records
+     * reaching it */
+    DecisionNode(int[] classFreqs) {
+      this.classFreqs = classFreqs;
+      this.leafClass = (sumArray(classFreqs) == 0) ? defaultClass : getIndexOfMax(classFreqs);
+    }
+
+    /* Returns whether this node is currently a leaf */
+    boolean isLeaf() {
+      return leafClass != Record.NO_CLASS;
     }
 
-    /* Classifies a single training instance and returns a string representation of
-     * that calculated class */
-    String classify(Record record) {
-      if(leafLabel != null) {
-        return leafLabel;
+    /* Classifies a single training instance and returns the code of that calculated
+     * class */
+    int classify(Record record) {
+      if(isLeaf()) {
+        return leafClass;
       } else if(splitCondition.test(record)) {
         return leftChild.classify(record);
       } else {
@@ -362,7 +783,7 @@ public class DecisionTree extends Classifier {
     ArrayList<String> getStrings() {
       HashMap<String, Integer> classFreqsMap = new HashMap<>();
       for(int i = 0; i < classFreqs.length; i++) {
-        classFreqsMap.put(indexClassMap[i], classFreqs[i]);
+        classFreqsMap.put(labelTable.getLabel(i), classFreqs[i]);
       }
       ArrayList<String> strs = new ArrayList<>();
       strs.add(classFreqsMap.toString());
@@ -374,18 +795,18 @@ public class DecisionTree extends Classifier {
       return strs;
     }
 
-    /* Makes this node into a leaf by setting its leafLabel*/
+    /* Makes this node into a leaf by setting its leafClass*/
     void prune() {
-      leafLabel = indexClassMap[getIndexOfMax(classFreqs)];
+      leafClass = getIndexOfMax(classFreqs);
     }
 
     /* If this node has children, restore its status as a non-leaf by setting its
-     * leafLabel to null. Throws an exception if the node lacks children */
+     * leafClass to Record.NO_CLASS. Throws an exception if the node lacks children */
     void unprune() {
       if(rightChild == null || leftChild == null) {
         throw new RuntimeException("Cannot unprune childless node.");
       }
-      leafLabel = null;
+      leafClass = Record.NO_CLASS;
     }
 
     /* Returns the sum of the training errors of all leaf descendants of this node */
@@ -410,7 +831,7 @@ public class DecisionTree extends Classifier {
       nodesToVisit.add(this);
       while(!nodesToVisit.isEmpty()) {
         DecisionNode cur = nodesToVisit.remove(0);
-        if(cur.leafLabel == null) {
+        if(!cur.isLeaf()) {
           nodesToVisit.add(cur.leftChild);
           nodesToVisit.add(cur.rightChild);
         } else {
@@ -428,7 +849,7 @@ public class DecisionTree extends Classifier {
       nodesToVisit.add(this);
       while(!nodesToVisit.isEmpty()) {
         DecisionNode cur = nodesToVisit.remove(0);
-        if(cur.leafLabel == null) {
+        if(!cur.isLeaf()) {
           nonLeaves.add(cur);
           nodesToVisit.add(cur.leftChild);
           nodesToVisit.add(cur.rightChild);
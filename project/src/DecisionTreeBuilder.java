@@ -14,6 +14,11 @@ public class DecisionTreeBuilder {
   public int numThreads;
   /* Maximum number of buckets considered for splitting per attribute */
   public int maxBuckets;
+  /* Minimum number of records reaching a node for split candidates to be selected
+   * from quantile sketches instead of from every distinct value */
+  public int sketchMinRecords;
+  /* Size of the quantile sketches used to select split candidates */
+  public int sketchSize;
   /* Maximum percent of records reaching the node that can be from a different
    * class for the node to still be considered homogeneous.*/
   public double maxNonHomogenuousPercent;
@@ -37,6 +42,77 @@ public class DecisionTreeBuilder {
   public double geneConditionsPercent;
   /* Used to build genetic algorithm splitter by GeneticSplitStrategy */
   public GeneticSplitter.GeneticSplitterBuilder geneticBuilder;
+  /* Portion of each genetic algorithm population seeded from the parent node's
+   * hyperplane, 0 to disable. Used by GeneticSplitStrategy */
+  public double warmStartFraction;
+  /* Whether convergence statistics of the genetic algorithm are printed after a
+   * tree is built. Used by GeneticSplitStrategy */
+  public boolean reportConvergence;
+  /* Maximum wall-clock time in milliseconds spent by the genetic algorithm on a
+   * tree, 0 if unlimited. Used by GeneticSplitStrategy */
+  public long budgetMillis;
+  /* Maximum number of fitness evaluations made by the genetic algorithm on a tree,
+   * 0 if unlimited. Used by GeneticSplitStrategy */
+  public long budgetEvaluations;
+  /* Whether a node's search returns the best split found so far as soon as its
+   * share of the budget runs out rather than at the end of a generation. Used by
+   * GeneticSplitStrategy */
+  public boolean anytime;
+  /* Number of times the search for a hyperplane restarts from a random one. Used
+   * by PerturbationSplitStrategy */
+  public int numRestarts;
+  /* Number of random directions tried when no coefficient of a hyperplane can be
+   * improved. Used by PerturbationSplitStrategy */
+  public int numRandomJumps;
+  /* Weight in [0, 1] of the identity in the regularized within-class scatter
+   * matrix. Used by DiscriminantSplitStrategy */
+  public double shrinkage;
+  /* Portion of the features reaching a node that are considered for splitting it,
+   * chosen at random per node. 1 considers every feature */
+  public double featureFraction;
+  /* Number of trees trained by buildEnsemble */
+  public int numTrees;
+  /* Whether records of the same class with identical features are merged into a
+   * single weighted record before training */
+  public boolean mergeDuplicates;
+  /* Whether sparse features that are rarely non-zero in the same record are bundled
+   * so that each bundle's candidates are scored in a single pass */
+  public boolean bundleFeatures;
+  /* Largest portion of the records that may be non-zero for more than one feature
+   * of a bundle */
+  public double maxConflictRate;
+  /* Whether the tree is grown best first within the growth limits below instead of
+   * depth first until every leaf is homogeneous */
+  public boolean bestFirst;
+  /* Maximum number of leaves of a tree grown best first, 0 if unlimited */
+  public int maxLeaves;
+  /* Maximum depth of a leaf of a tree grown best first, 0 if unlimited */
+  public int maxDepth;
+  /* Minimum reduction in weighted Gini impurity, as a portion of the total weight
+   * of the training records, for a node of a tree grown best first to be split */
+  public double minGain;
+  /* Maximum wall-clock time in milliseconds spent growing a tree best first, 0 if
+   * unlimited */
+  public long growthMillis;
+  /* File that checkpoints of a tree are saved to while it is built, so that an
+   * interrupted build can be resumed from it, null if no checkpoints are taken */
+  public String checkpointFile;
+  /* Minimum number of milliseconds between checkpoints */
+  public long checkpointMillis;
+  /* Weight of the records that must reach a leaf of a streaming tree between
+   * evaluations of its splits */
+  public int gracePeriod;
+  /* Probability allowed that a leaf of a streaming tree is split on a threshold
+   * that is not the best */
+  public double splitConfidence;
+  /* Hoeffding bound below which the best two thresholds of a leaf of a streaming
+   * tree are considered tied */
+  public double tieThreshold;
+  /* Number of records ingested at once by a streaming tree built from a list */
+  public int streamBatchSize;
+  /* Number of worker processes the features are sharded over to score the
+   * axis-parallel candidates of a tree, 0 if they are scored in this process */
+  public int numWorkers;
 
   /* Constructor, sets all values to their defaults */
   public DecisionTreeBuilder() {
@@ -45,6 +121,8 @@ public class DecisionTreeBuilder {
     this.rand = new Random(484);
     this.numThreads = 4;
     this.maxBuckets = 200;
+    this.sketchMinRecords = 50000;
+    this.sketchSize = 800;
     this.maxNonHomogenuousPercent = 0.001;
     this.maxBaseConditions = 300;
     this.minBaseConditions = 100;
@@ -52,13 +130,89 @@ public class DecisionTreeBuilder {
     this.maxGeneConditions = 100;
     this.minGeneConditions = 1;
     this.geneConditionsPercent = 0.45;
+    this.warmStartFraction = 0;
+    this.reportConvergence = false;
+    this.budgetMillis = 0;
+    this.budgetEvaluations = 0;
+    this.anytime = false;
+    this.numRestarts = 5;
+    this.numRandomJumps = 5;
+    this.shrinkage = 0.1;
+    this.featureFraction = 1.0;
+    this.numTrees = 50;
+    this.mergeDuplicates = false;
+    this.bundleFeatures = false;
+    this.maxConflictRate = 0.0;
+    this.bestFirst = false;
+    this.maxLeaves = 0;
+    this.maxDepth = 0;
+    this.minGain = 0.0;
+    this.growthMillis = 0;
+    this.checkpointFile = null;
+    this.checkpointMillis = 60000;
+    this.gracePeriod = 200;
+    this.splitConfidence = 1e-7;
+    this.tieThreshold = 0.05;
+    this.streamBatchSize = 1000;
+    this.numWorkers = 0;
     this.geneticBuilder = new GeneticSplitter.GeneticSplitterBuilder()
                       .rand(rand)
                       .populationSize(128)
                       .tournamentSize(4)
                       .replacementTournamentSize(6)
                       .maxBuckets(maxBuckets)
-                      .maxGenerations(200);
+                      .maxGenerations(200)
+                      .optimizeBias(false)
+                      .racingMinRecords(5000)
+                      .racingSampleSize(1000)
+                      .numIslands(1)
+                      .migrationInterval(10);
+  }
+
+  /* Copy constructor, returns a builder with the same values as the specified
+   * builder that can be changed independently of it. The random number generator
+   * is shared until it is replaced */
+  public DecisionTreeBuilder(DecisionTreeBuilder other) {
+    this.reservePortionDenom = other.reservePortionDenom;
+    this.prune = other.prune;
+    this.rand = other.rand;
+    this.numThreads = other.numThreads;
+    this.maxBuckets = other.maxBuckets;
+    this.sketchMinRecords = other.sketchMinRecords;
+    this.sketchSize = other.sketchSize;
+    this.maxNonHomogenuousPercent = other.maxNonHomogenuousPercent;
+    this.maxBaseConditions = other.maxBaseConditions;
+    this.minBaseConditions = other.minBaseConditions;
+    this.baseConditionsPercent = other.baseConditionsPercent;
+    this.maxGeneConditions = other.maxGeneConditions;
+    this.minGeneConditions = other.minGeneConditions;
+    this.geneConditionsPercent = other.geneConditionsPercent;
+    this.geneticBuilder = new GeneticSplitter.GeneticSplitterBuilder(other.geneticBuilder);
+    this.warmStartFraction = other.warmStartFraction;
+    this.reportConvergence = other.reportConvergence;
+    this.budgetMillis = other.budgetMillis;
+    this.budgetEvaluations = other.budgetEvaluations;
+    this.anytime = other.anytime;
+    this.numRestarts = other.numRestarts;
+    this.numRandomJumps = other.numRandomJumps;
+    this.shrinkage = other.shrinkage;
+    this.featureFraction = other.featureFraction;
+    this.numTrees = other.numTrees;
+    this.mergeDuplicates = other.mergeDuplicates;
+    this.bundleFeatures = other.bundleFeatures;
+    this.maxConflictRate = other.maxConflictRate;
+    this.bestFirst = other.bestFirst;
+    this.maxLeaves = other.maxLeaves;
+    this.maxDepth = other.maxDepth;
+    this.minGain = other.minGain;
+    this.growthMillis = other.growthMillis;
+    this.checkpointFile = other.checkpointFile;
+    this.checkpointMillis = other.checkpointMillis;
+    this.gracePeriod = other.gracePeriod;
+    this.splitConfidence = other.splitConfidence;
+    this.tieThreshold = other.tieThreshold;
+    this.streamBatchSize = other.streamBatchSize;
+    this.numWorkers = other.numWorkers;
   }
 
   public DecisionTreeBuilder reservePortionDenom(int reservePortionDenom) {
@@ -88,6 +242,16 @@ public class DecisionTreeBuilder {
     return this;
   }
 
+  public DecisionTreeBuilder sketchMinRecords(int sketchMinRecords) {
+    this.sketchMinRecords = sketchMinRecords;
+    return this;
+  }
+
+  public DecisionTreeBuilder sketchSize(int sketchSize) {
+    this.sketchSize = sketchSize;
+    return this;
+  }
+
   public DecisionTreeBuilder maxNonHomogenuousPercent(double maxNonHomogenuousPercent) {
     this.maxNonHomogenuousPercent = maxNonHomogenuousPercent;
     return this;
@@ -123,6 +287,158 @@ public class DecisionTreeBuilder {
     return this;
   }
 
+  public DecisionTreeBuilder warmStartFraction(double warmStartFraction) {
+    this.warmStartFraction = warmStartFraction;
+    return this;
+  }
+
+  public DecisionTreeBuilder reportConvergence(boolean reportConvergence) {
+    this.reportConvergence = reportConvergence;
+    return this;
+  }
+
+  public DecisionTreeBuilder budgetMillis(long budgetMillis) {
+    this.budgetMillis = budgetMillis;
+    return this;
+  }
+
+  public DecisionTreeBuilder budgetEvaluations(long budgetEvaluations) {
+    this.budgetEvaluations = budgetEvaluations;
+    return this;
+  }
+
+  public DecisionTreeBuilder anytime(boolean anytime) {
+    this.anytime = anytime;
+    return this;
+  }
+
+  public DecisionTreeBuilder numRestarts(int numRestarts) {
+    this.numRestarts = numRestarts;
+    return this;
+  }
+
+  public DecisionTreeBuilder numRandomJumps(int numRandomJumps) {
+    this.numRandomJumps = numRandomJumps;
+    return this;
+  }
+
+  public DecisionTreeBuilder shrinkage(double shrinkage) {
+    if(shrinkage < 0 || shrinkage > 1) {
+      throw new RuntimeException("Shrinkage must be between 0 and 1.");
+    }
+    this.shrinkage = shrinkage;
+    return this;
+  }
+
+  public DecisionTreeBuilder featureFraction(double featureFraction) {
+    if(featureFraction <= 0 || featureFraction > 1) {
+      throw new RuntimeException("Feature fraction must be greater than 0 and at most 1.");
+    }
+    this.featureFraction = featureFraction;
+    return this;
+  }
+
+  public DecisionTreeBuilder numTrees(int numTrees) {
+    if(numTrees < 1) {
+      throw new RuntimeException("An ensemble must have at least one tree.");
+    }
+    this.numTrees = numTrees;
+    return this;
+  }
+
+  public DecisionTreeBuilder mergeDuplicates(boolean mergeDuplicates) {
+    this.mergeDuplicates = mergeDuplicates;
+    return this;
+  }
+
+  public DecisionTreeBuilder bundleFeatures(boolean bundleFeatures) {
+    this.bundleFeatures = bundleFeatures;
+    return this;
+  }
+
+  public DecisionTreeBuilder maxConflictRate(double maxConflictRate) {
+    if(maxConflictRate < 0 || maxConflictRate >= 1) {
+      throw new RuntimeException("The maximum conflict rate must be in [0, 1).");
+    }
+    this.maxConflictRate = maxConflictRate;
+    return this;
+  }
+
+  public DecisionTreeBuilder bestFirst(boolean bestFirst) {
+    this.bestFirst = bestFirst;
+    return this;
+  }
+
+  public DecisionTreeBuilder maxLeaves(int maxLeaves) {
+    this.maxLeaves = maxLeaves;
+    return this;
+  }
+
+  public DecisionTreeBuilder maxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  public DecisionTreeBuilder minGain(double minGain) {
+    this.minGain = minGain;
+    return this;
+  }
+
+  public DecisionTreeBuilder growthMillis(long growthMillis) {
+    this.growthMillis = growthMillis;
+    return this;
+  }
+
+  public DecisionTreeBuilder checkpointFile(String checkpointFile) {
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+
+  public DecisionTreeBuilder checkpointMillis(long checkpointMillis) {
+    if(checkpointMillis < 0) {
+      throw new RuntimeException("Checkpoint interval must not be negative.");
+    }
+    this.checkpointMillis = checkpointMillis;
+    return this;
+  }
+
+  public DecisionTreeBuilder gracePeriod(int gracePeriod) {
+    if(gracePeriod < 1) {
+      throw new RuntimeException("Grace period must be positive.");
+    }
+    this.gracePeriod = gracePeriod;
+    return this;
+  }
+
+  public DecisionTreeBuilder splitConfidence(double splitConfidence) {
+    if(splitConfidence <= 0 || splitConfidence >= 1) {
+      throw new RuntimeException("Split confidence must be in (0, 1).");
+    }
+    this.splitConfidence = splitConfidence;
+    return this;
+  }
+
+  public DecisionTreeBuilder tieThreshold(double tieThreshold) {
+    this.tieThreshold = tieThreshold;
+    return this;
+  }
+
+  public DecisionTreeBuilder streamBatchSize(int streamBatchSize) {
+    if(streamBatchSize < 1) {
+      throw new RuntimeException("Stream batch size must be positive.");
+    }
+    this.streamBatchSize = streamBatchSize;
+    return this;
+  }
+
+  public DecisionTreeBuilder numWorkers(int numWorkers) {
+    if(numWorkers < 0) {
+      throw new RuntimeException("Number of workers must not be negative.");
+    }
+    this.numWorkers = numWorkers;
+    return this;
+  }
+
   public DecisionTreeBuilder populationSize(int populationSize) {
     this.geneticBuilder.populationSize(populationSize);
     return this;
@@ -143,18 +459,140 @@ public class DecisionTreeBuilder {
     return this;
   }
 
-  /* Returns a DecisionTree instance built from the builder's parameters */
+  public DecisionTreeBuilder optimizeBias(boolean optimizeBias) {
+    this.geneticBuilder.optimizeBias(optimizeBias);
+    return this;
+  }
+
+  public DecisionTreeBuilder racingMinRecords(int racingMinRecords) {
+    this.geneticBuilder.racingMinRecords(racingMinRecords);
+    return this;
+  }
+
+  public DecisionTreeBuilder racingSampleSize(int racingSampleSize) {
+    this.geneticBuilder.racingSampleSize(racingSampleSize);
+    return this;
+  }
+
+  public DecisionTreeBuilder numIslands(int numIslands) {
+    this.geneticBuilder.numIslands(numIslands);
+    return this;
+  }
+
+  public DecisionTreeBuilder migrationInterval(int migrationInterval) {
+    this.geneticBuilder.migrationInterval(migrationInterval);
+    return this;
+  }
+
+  /* Returns a hash of the options that determine the tree a build produces. The
+   * random number generator is left out, as are the options that only change how
+   * the tree is built: the number of threads and feature workers, checkpointing and
+   * reporting. Options only used by ensembles and streaming trees are left out too */
+  public long getOptionsHash() {
+    long hash = reservePortionDenom;
+    hash = hash*31 + (prune ? 1 : 0);
+    hash = hash*31 + maxBuckets;
+    hash = hash*31 + sketchMinRecords;
+    hash = hash*31 + sketchSize;
+    hash = hash*31 + Double.hashCode(maxNonHomogenuousPercent);
+    hash = hash*31 + maxBaseConditions;
+    hash = hash*31 + minBaseConditions;
+    hash = hash*31 + Double.hashCode(baseConditionsPercent);
+    hash = hash*31 + maxGeneConditions;
+    hash = hash*31 + minGeneConditions;
+    hash = hash*31 + Double.hashCode(geneConditionsPercent);
+    hash = hash*31 + geneticBuilder.getOptionsHash();
+    hash = hash*31 + Double.hashCode(warmStartFraction);
+    hash = hash*31 + budgetMillis;
+    hash = hash*31 + budgetEvaluations;
+    hash = hash*31 + (anytime ? 1 : 0);
+    hash = hash*31 + numRestarts;
+    hash = hash*31 + numRandomJumps;
+    hash = hash*31 + Double.hashCode(shrinkage);
+    hash = hash*31 + Double.hashCode(featureFraction);
+    hash = hash*31 + (mergeDuplicates ? 1 : 0);
+    hash = hash*31 + (bundleFeatures ? 1 : 0);
+    hash = hash*31 + Double.hashCode(maxConflictRate);
+    hash = hash*31 + (bestFirst ? 1 : 0);
+    hash = hash*31 + maxLeaves;
+    hash = hash*31 + maxDepth;
+    hash = hash*31 + Double.hashCode(minGain);
+    return hash*31 + growthMillis;
+  }
+
+  /* Returns a DecisionTree instance built from the builder's parameters. Class codes
+   * are taken from the label table shared by the specified records. The number of
+   * records allowed to differ from the majority of a homogeneous node is a portion
+   * of the records' total weight. If a checkpoint file is set, the build resumes
+   * from the checkpoint in it if it was taken of a build of the same records with
+   * the same options and random number generator state, and the file is deleted
+   * once the tree is built */
   public <T extends SplitStrategy> DecisionTree build(List<Record> records, Class<T> strategyClass) {
+    if(mergeDuplicates) {
+      records = Record.mergeDuplicates(records);
+    }
+    TrainingCheckpoint.Writer checkpoints = null;
+    FeatureCoordinator featureCoordinator = null;
+    boolean built = false;
     try {
+      if(checkpointFile != null) {
+        // The fingerprint covers rand's state, which the strategy draws its seeds from
+        checkpoints = new TrainingCheckpoint.Writer(checkpointFile, checkpointMillis, TrainingCheckpoint.fingerprint(records, strategyClass, this));
+      }
       SplitStrategy splitStrategy = strategyClass.getConstructor(DecisionTreeBuilder.class).newInstance(this);
-      DecisionTree tree = new DecisionTree(records, (int)(records.size()*maxNonHomogenuousPercent)+1, splitStrategy);
+      LabelTable labelTable = records.get(0).getLabelTable();
+      if(bundleFeatures) {
+        splitStrategy.setFeatureBundles(new FeatureBundles(records, labelTable.size(), maxBuckets, maxConflictRate));
+      }
+      if(numWorkers > 0) {
+        // Workers score every feature of a node, so features are neither sampled nor bundled
+        if(featureFraction < 1 || bundleFeatures) {
+          throw new RuntimeException("Feature workers cannot sample or bundle features.");
+        }
+        featureCoordinator = new FeatureCoordinator(records, labelTable.size(), this);
+        splitStrategy.setFeatureCoordinator(featureCoordinator);
+      }
+      int maxNonHomogenuousRecords = (int)(Record.getTotalWeight(records)*maxNonHomogenuousPercent)+1;
+      GrowthLimits growthLimits = bestFirst ? new GrowthLimits(maxLeaves, maxDepth, minGain, growthMillis) : null;
+      DecisionTree tree = new DecisionTree(records, labelTable, maxNonHomogenuousRecords, splitStrategy, growthLimits, checkpoints);
       if(prune) {
         tree.pruneTree(reservePortionDenom, rand);
       }
+      if(reportConvergence && splitStrategy instanceof GeneticSplitStrategy) {
+        System.out.print(((GeneticSplitStrategy)splitStrategy).getConvergenceStats(tree));
+      }
+      built = true;
       return tree;
     } catch (Exception e) {
       e.printStackTrace();
       throw new RuntimeException("Failed to build tree's strategy.");
+    } finally {
+      if(checkpoints != null) {
+        checkpoints.close();
+        if(built) {
+          checkpoints.delete();
+        }
+      }
+      if(featureCoordinator != null) {
+        featureCoordinator.close();
+      }
+    }
+  }
+
+  /* Returns an Ensemble of numTrees DecisionTrees built from the builder's
+   * parameters, each on a bootstrap sample of the specified records */
+  public <T extends SplitStrategy> Ensemble buildEnsemble(List<Record> records, Class<T> strategyClass) {
+    return new Ensemble(records, this, strategyClass);
+  }
+
+  /* Returns a StreamingTree built from the builder's parameters that has ingested
+   * the specified records in batches of streamBatchSize records, in order. More
+   * records can be ingested into the returned tree as they arrive */
+  public StreamingTree buildStreaming(List<Record> records) {
+    StreamingTree tree = new StreamingTree(records.get(0).getLabelTable(), this);
+    for(int from = 0; from < records.size(); from += streamBatchSize) {
+      tree.ingest(records.subList(from, Math.min(records.size(), from + streamBatchSize)));
     }
+    return tree;
   }
 }
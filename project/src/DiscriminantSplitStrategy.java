@@ -0,0 +1,313 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/* Splits decision trees on hyperplanes computed in closed form by Fisher's linear
+ * discriminant. The classes reaching a node are divided into two groups by the side
+ * of the best axis-parallel split most of each class falls on, and the direction
+ * that best separates the groups is found over the features of the best
+ * axis-parallel conditions. The within-group scatter matrix is shrunk towards a
+ * multiple of the identity so that the direction is still defined when there are
+ * more features than records. The threshold along the direction is then chosen by
+ * a single sorted sweep. Only two passes over the records and one projection are
+ * needed per node */
+public class DiscriminantSplitStrategy extends SplitStrategy {
+
+  /* Maximum number of conditions whose features are used */
+  private final int maxGeneConditions;
+  /* Minimum number of conditions whose features are used */
+  private final int minGeneConditions;
+  /* Percentage of total records added to the minimum number of conditions */
+  private final double geneConditionsPercent;
+  /* Weight in [0, 1] of the identity in the regularized scatter matrix */
+  private final double shrinkage;
+  /* Computes the projections of the records onto hyperplanes */
+  private final ProjectionKernel kernel;
+
+  /* Default Constructor */
+  public DiscriminantSplitStrategy(DecisionTreeBuilder builder) {
+    super(builder);
+    this.maxGeneConditions = builder.maxGeneConditions;
+    this.minGeneConditions = builder.minGeneConditions;
+    this.geneConditionsPercent = builder.geneConditionsPercent;
+    this.shrinkage = builder.shrinkage;
+    this.kernel = ProjectionKernel.getInstance();
+  }
+
+  /* Returns the purer of the best axis-parallel split and the split along the
+   * discriminant direction of the reaching records */
+  @Override
+  public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree, SplitContext context) {
+    double classFactor = 1.0/Record.getAllClasses(records).size();
+    int numCond = (int)Math.min(classFactor*records.size()*geneConditionsPercent + minGeneConditions, maxGeneConditions);
+    List<SplitCondition> conditions = getBaseConditions(records, numCond, context).toSplitConditions(numCond);
+    if(conditions.isEmpty()) {
+      return null;
+    }
+    SplitCondition axisParallel = conditions.get(0);
+    TreeSet<Integer> featureSet = new TreeSet<>();
+    for(SplitCondition condition : conditions) {
+      featureSet.add(condition.getFeature());
+    }
+    if(featureSet.size() < 2 || axisParallel.getImpurity() == 0) {
+      return axisParallel;
+    }
+    int[] features = new int[featureSet.size()];
+    for(int j = 0; j < features.length; j++) {
+      features[j] = featureSet.pollFirst();
+    }
+    SplitCondition oblique = discriminantSplit(records, tree.getNumClasses(), features, axisParallel);
+    return (oblique != null && oblique.getImpurity() < axisParallel.getImpurity()) ? oblique : axisParallel;
+  }
+
+  /* Returns the purest split of the specified records along the discriminant
+   * direction over the specified features, or null if the groups cannot be
+   * separated */
+  private SplitCondition discriminantSplit(List<Record> records, int numClasses, int[] features, SplitCondition axisParallel) {
+    int numRows = records.size();
+    int d = features.length;
+    double[][] columns = ProjectionKernel.toColumns(records, features);
+    int[] classCodes = new int[numRows];
+    int[] rowWeights = new int[numRows];
+    int[] classFreqs = new int[numClasses];
+    int r = 0;
+    for(Record record : records) {
+      classCodes[r] = record.getClassCode();
+      rowWeights[r] = record.getWeight();
+      classFreqs[classCodes[r]] += rowWeights[r];
+      r++;
+    }
+    int totalWeight = DecisionTree.sumArray(classFreqs);
+    boolean[] group = splitClasses(records, numClasses, classCodes, rowWeights, classFreqs, axisParallel);
+    if(group == null) {
+      return null;
+    }
+    // First pass: group means and the spread of each feature
+    double[][] means = new double[2][d];
+    int[] groupSizes = new int[2];
+    double[] scales = new double[d];
+    for(r = 0; r < numRows; r++) {
+      groupSizes[group[classCodes[r]] ? 1 : 0] += rowWeights[r];
+    }
+    for(int j = 0; j < d; j++) {
+      double[] column = columns[j];
+      double total = 0;
+      for(r = 0; r < numRows; r++) {
+        means[group[classCodes[r]] ? 1 : 0][j] += rowWeights[r]*column[r];
+        total += rowWeights[r]*column[r];
+      }
+      double mean = total/totalWeight;
+      double squares = 0;
+      for(r = 0; r < numRows; r++) {
+        squares += rowWeights[r]*(column[r]-mean)*(column[r]-mean);
+      }
+      scales[j] = Math.sqrt(squares/totalWeight);
+      means[0][j] /= groupSizes[0];
+      means[1][j] /= groupSizes[1];
+    }
+    // Second pass: within-group scatter of the standardized features, accumulated
+    // one row at a time so only a single centered row is held
+    double[][] scatter = new double[d][d];
+    double[] centered = new double[d];
+    for(r = 0; r < numRows; r++) {
+      double[] mean = means[group[classCodes[r]] ? 1 : 0];
+      for(int j = 0; j < d; j++) {
+        centered[j] = (scales[j] > 0) ? (columns[j][r] - mean[j])/scales[j] : 0;
+      }
+      int weight = rowWeights[r];
+      for(int i = 0; i < d; i++) {
+        double weighted = weight*centered[i];
+        for(int j = 0; j <= i; j++) {
+          scatter[i][j] += weighted*centered[j];
+        }
+      }
+    }
+    for(int i = 0; i < d; i++) {
+      for(int j = 0; j <= i; j++) {
+        scatter[i][j] /= totalWeight;
+        scatter[j][i] = scatter[i][j];
+      }
+    }
+    double trace = 0;
+    for(int j = 0; j < d; j++) {
+      trace += scatter[j][j];
+    }
+    if(trace == 0) {
+      return null;
+    }
+    for(int i = 0; i < d; i++) {
+      for(int j = 0; j < d; j++) {
+        scatter[i][j] *= (1-shrinkage);
+      }
+      // Constant features are given unit variance so that the matrix stays invertible
+      scatter[i][i] += (scales[i] > 0) ? shrinkage*trace/d : 1.0;
+    }
+    double[] difference = new double[d];
+    for(int j = 0; j < d; j++) {
+      difference[j] = (scales[j] > 0) ? (means[1][j] - means[0][j])/scales[j] : 0;
+    }
+    double[] direction = solveSymmetric(scatter, difference);
+    if(direction == null) {
+      return null;
+    }
+    double[] weights = new double[d];
+    for(int j = 0; j < d; j++) {
+      weights[j] = (scales[j] > 0) ? direction[j]/scales[j] : 0;
+    }
+    double[] projections = new double[numRows];
+    kernel.project(columns, weights, numRows, projections);
+    double[] threshold = bestThreshold(projections, classCodes, rowWeights, classFreqs);
+    if(threshold == null) {
+      return null;
+    }
+    SplitCondition condition = new SplitCondition(new ConditionNode.Linear(features, weights, threshold[0]));
+    condition.setImpurity(threshold[1]);
+    return condition;
+  }
+
+  /* Returns which of the two groups each class is in: whether most of the weight of
+   * its records passes the specified condition. If every class ends up in the same group, the class
+   * with the largest share of its records on the other side is moved. Returns null if
+   * fewer than two classes reach the node */
+  private static boolean[] splitClasses(List<Record> records, int numClasses, int[] classCodes, int[] rowWeights, int[] classFreqs, SplitCondition condition) {
+    int[] passed = new int[numClasses];
+    long[] results = condition.testAll(records);
+    for(int r = 0; r < classCodes.length; r++) {
+      if((results[r >>> 6] & (1L << r)) != 0) {
+        passed[classCodes[r]] += rowWeights[r];
+      }
+    }
+    boolean[] group = new boolean[numClasses];
+    int numPresent = 0;
+    int numInGroup = 0;
+    for(int c = 0; c < numClasses; c++) {
+      if(classFreqs[c] > 0) {
+        numPresent++;
+        group[c] = 2*passed[c] > classFreqs[c];
+        numInGroup += group[c] ? 1 : 0;
+      }
+    }
+    if(numPresent < 2) {
+      return null;
+    }
+    if(numInGroup == 0 || numInGroup == numPresent) {
+      int moved = -1;
+      double movedShare = -1;
+      for(int c = 0; c < numClasses; c++) {
+        if(classFreqs[c] > 0) {
+          double share = (group[c] ? classFreqs[c] - passed[c] : passed[c])/(1.0*classFreqs[c]);
+          if(share > movedShare) {
+            movedShare = share;
+            moved = c;
+          }
+        }
+      }
+      group[moved] = !group[moved];
+    }
+    return group;
+  }
+
+  /* Returns the solution of the specified symmetric positive definite system using
+   * its Cholesky decomposition, or null if the matrix is not positive definite */
+  private static double[] solveSymmetric(double[][] matrix, double[] vector) {
+    int d = vector.length;
+    double[][] lower = new double[d][d];
+    for(int i = 0; i < d; i++) {
+      for(int j = 0; j <= i; j++) {
+        double sum = matrix[i][j];
+        for(int k = 0; k < j; k++) {
+          sum -= lower[i][k]*lower[j][k];
+        }
+        if(i == j) {
+          if(sum <= 0) {
+            return null;
+          }
+          lower[i][i] = Math.sqrt(sum);
+        } else {
+          lower[i][j] = sum/lower[j][j];
+        }
+      }
+    }
+    double[] y = new double[d];
+    for(int i = 0; i < d; i++) {
+      double sum = vector[i];
+      for(int k = 0; k < i; k++) {
+        sum -= lower[i][k]*y[k];
+      }
+      y[i] = sum/lower[i][i];
+    }
+    double[] x = new double[d];
+    for(int i = d-1; i >= 0; i--) {
+      double sum = y[i];
+      for(int k = i+1; k < d; k++) {
+        sum -= lower[k][i]*x[k];
+      }
+      x[i] = sum/lower[i][i];
+    }
+    return x;
+  }
+
+  /* Returns the bias halfway between consecutive distinct projections that gives
+   * the purest split, with the impurity of that split, or null if all of the
+   * projections are equal. The sorted projections of each class, each carrying the
+   * weight of its row, are merged while the class counts on the left side are kept */
+  private static double[] bestThreshold(double[] projections, int[] classCodes, int[] rowWeights, int[] classFreqs) {
+    int numClasses = classFreqs.length;
+    int[] counts = new int[numClasses];
+    for(int classCode : classCodes) {
+      counts[classCode]++;
+    }
+    double[][] classProjections = new double[numClasses][];
+    int[][] classWeights = new int[numClasses][];
+    for(int c = 0; c < numClasses; c++) {
+      classProjections[c] = new double[counts[c]];
+      classWeights[c] = new int[counts[c]];
+    }
+    Arrays.fill(counts, 0);
+    int totalWeight = 0;
+    for(int r = 0; r < projections.length; r++) {
+      int c = classCodes[r];
+      classProjections[c][counts[c]] = projections[r];
+      classWeights[c][counts[c]++] = rowWeights[r];
+      totalWeight += rowWeights[r];
+    }
+    for(int c = 0; c < numClasses; c++) {
+      DataMiningUtil.sortTogether(classProjections[c], classWeights[c], 0, counts[c]);
+    }
+    int[] next = new int[numClasses];
+    int[] freqsLeft = new int[numClasses];
+    double bestImpurity = Double.POSITIVE_INFINITY;
+    double bestBias = 0;
+    double value = minRemaining(classProjections, next);
+    while(true) {
+      for(int c = 0; c < numClasses; c++) {
+        while(next[c] < counts[c] && classProjections[c][next[c]] == value) {
+          freqsLeft[c] += classWeights[c][next[c]++];
+        }
+      }
+      double nextValue = minRemaining(classProjections, next);
+      if(nextValue == Double.POSITIVE_INFINITY) {
+        break;
+      }
+      double impurity = SplitStrategy.calcWeightedGiniImpurityFromTotals(freqsLeft, classFreqs, totalWeight);
+      if(impurity < bestImpurity) {
+        bestImpurity = impurity;
+        bestBias = SplitStrategy.biasBetween(value, nextValue);
+      }
+      value = nextValue;
+    }
+    return (bestImpurity == Double.POSITIVE_INFINITY) ? null : new double[]{bestBias, bestImpurity};
+  }
+
+  /* Returns the smallest projection not yet swept, or positive infinity if every
+   * projection has been swept */
+  private static double minRemaining(double[][] classProjections, int[] next) {
+    double min = Double.POSITIVE_INFINITY;
+    for(int c = 0; c < next.length; c++) {
+      if(next[c] < classProjections[c].length) {
+        min = Math.min(min, classProjections[c][next[c]]);
+      }
+    }
+    return min;
+  }
+}
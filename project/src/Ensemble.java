@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/* A bagged ensemble of decision trees that classifies records by majority vote.
+ * Each tree is trained on a bootstrap sample of one shared list of records in which
+ * every record drawn appears once, weighted by the number of times it was drawn.
+ * A record drawn a different number of times than its weight appears as a view
+ * that shares its features, so samples do not copy the records. A record's weight
+ * counts as that many records when drawing. Each tree considers a random subset of
+ * the features at each node when the builder's featureFraction is less than 1,
+ * which makes it a random forest. The trees are trained concurrently on one pool of
+ * threads and each draws its randomness from its own seed, so the ensemble does not
+ * depend on the order the trees finish in */
+public class Ensemble extends Classifier {
+
+  /* Number of records whose votes are counted together when classifying */
+  private static final int BATCH_SIZE = 1024;
+
+  /* Table that the class codes of the training records are interned in */
+  private final LabelTable labelTable;
+  /* Number of different class codes in the label table */
+  private final int numClasses;
+  /* Number of threads used to train the trees and to classify records */
+  private final int numThreads;
+  /* The trained trees */
+  private final DecisionTree.FlatTree[] trees;
+
+  /* Constructor, trains the specified builder's number of trees on bootstrap
+   * samples of the specified records using the specified split strategy. The seed
+   * of each tree is drawn from the builder's random number generator */
+  public <T extends SplitStrategy> Ensemble(List<Record> records, DecisionTreeBuilder builder, Class<T> strategyClass) {
+    this.labelTable = records.get(0).getLabelTable();
+    this.numClasses = labelTable.size();
+    this.numThreads = builder.numThreads;
+    this.trees = new DecisionTree.FlatTree[builder.numTrees];
+    List<Record> shared = builder.mergeDuplicates ? Record.mergeDuplicates(records) : new ArrayList<>(records);
+    int[] cumulativeWeights = new int[shared.size()];
+    int total = 0;
+    for(int i = 0; i < cumulativeWeights.length; i++) {
+      total += shared.get(i).getWeight();
+      cumulativeWeights[i] = total;
+    }
+    long[] seeds = new long[trees.length];
+    for(int t = 0; t < seeds.length; t++) {
+      seeds[t] = builder.rand.nextLong();
+    }
+    ArrayList<Callable<Boolean>> tasks = new ArrayList<>(trees.length);
+    for(int t = 0; t < trees.length; t++) {
+      final int index = t;
+      tasks.add(() -> {
+        try {
+          Random rand = new Random(seeds[index]);
+          int[] counts = bootstrapCounts(cumulativeWeights, rand);
+          // Trees are trained one per thread, so each uses a single thread itself, and
+          // they do not share the builder's checkpoint file or feature workers
+          DecisionTreeBuilder treeBuilder = new DecisionTreeBuilder(builder).rand(rand).numThreads(1).mergeDuplicates(false)
+                                                                         .checkpointFile(null).numWorkers(0);
+          trees[index] = treeBuilder.build(sample(shared, counts), strategyClass).flatten();
+          return true;
+        } catch(Exception e) {
+          e.printStackTrace();
+          return false;
+        }
+      });
+    }
+    if(DataMiningUtil.runTasks(tasks, numThreads).contains(false)) {
+      throw new RuntimeException("Failed to train a tree of the ensemble.");
+    }
+  }
+
+  /* Returns the number of times each record is drawn when as many records as their
+   * total weight are drawn with replacement, each with probability proportional to
+   * its weight. The specified array holds the running totals of the weights */
+  private static int[] bootstrapCounts(int[] cumulativeWeights, Random rand) {
+    int[] counts = new int[cumulativeWeights.length];
+    int total = (counts.length == 0) ? 0 : cumulativeWeights[counts.length-1];
+    for(int i = 0; i < total; i++) {
+      int index = Arrays.binarySearch(cumulativeWeights, rand.nextInt(total) + 1);
+      counts[(index < 0) ? -index-1 : index]++;
+    }
+    return counts;
+  }
+
+  /* Returns a list holding each of the specified records that was drawn at least
+   * once, with a weight equal to the number of times it was drawn. A record whose
+   * weight already matches is used as it is, otherwise a view of it with that weight
+   * is used. The list only lives while its tree is trained */
+  private static List<Record> sample(List<Record> records, int[] counts) {
+    List<Record> sample = new ArrayList<>();
+    for(int i = 0; i < counts.length; i++) {
+      int count = counts[i];
+      if(count == 0) {
+        continue;
+      }
+      sample.add(records.get(i).withWeight(count));
+    }
+    return sample;
+  }
+
+  /* Accessor for the number of trees */
+  public int getNumTrees() {
+    return trees.length;
+  }
+
+  /* Classifies a single record by majority vote and returns the code of the
+   * calculated class. Ties go to the lowest class code */
+  @Override
+  public int classifyCode(Record record) {
+    int[] votes = new int[numClasses];
+    for(DecisionTree.FlatTree tree : trees) {
+      votes[tree.classifyCode(record)]++;
+    }
+    return DecisionTree.getIndexOfMax(votes);
+  }
+
+  /* Accessor for labelTable */
+  @Override
+  public LabelTable getLabelTable() {
+    return labelTable;
+  }
+
+  /* Classifies every record in the specified list by majority vote. The records are
+   * split into batches that are classified concurrently, and each tree votes on a
+   * whole batch at once */
+  @Override
+  public int[] classifyAllCodes(List<Record> records) {
+    List<Record> rows = new ArrayList<>(records);
+    int[] codes = new int[rows.size()];
+    ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+    for(int from = 0; from < rows.size(); from += BATCH_SIZE) {
+      final int start = from;
+      final int end = Math.min(rows.size(), from + BATCH_SIZE);
+      tasks.add(() -> {
+        try {
+          List<Record> batch = rows.subList(start, end);
+          int[] votes = new int[batch.size()*numClasses];
+          for(DecisionTree.FlatTree tree : trees) {
+            tree.vote(batch, votes, numClasses);
+          }
+          for(int i = 0; i < batch.size(); i++) {
+            int best = 0;
+            for(int c = 1; c < numClasses; c++) {
+              if(votes[i*numClasses + c] > votes[i*numClasses + best]) {
+                best = c;
+              }
+            }
+            codes[start + i] = best;
+          }
+          return true;
+        } catch(Exception e) {
+          e.printStackTrace();
+          return false;
+        }
+      });
+    }
+    if(DataMiningUtil.runTasks(tasks, numThreads).contains(false)) {
+      throw new RuntimeException("Failed to classify records with the ensemble.");
+    }
+    return codes;
+  }
+}
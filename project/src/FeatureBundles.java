@@ -0,0 +1,363 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/* Exclusive feature bundling of the sparse features of a tree's training records.
+ * The non-zero values of each sparse feature are grouped into at most maxBins bins,
+ * none of which holds both negative and positive values so that zero always falls
+ * between bins, and features that are rarely non-zero in the same record are
+ * greedily packed into bundles. Each bundle stores a single code per record: 0 if every feature of the
+ * bundle is zero, otherwise the bin of the record's value for one of the bundle's
+ * features, offset so that the features' bins do not overlap. A node then builds the
+ * class histogram of a whole bundle in one pass over its records instead of one pass
+ * per feature, and the histogram is decoded back into thresholds on the original
+ * features. A record that is non-zero for more than one feature of a bundle, a
+ * conflict, is coded for the feature added last and counts as zero for the others */
+public class FeatureBundles {
+
+  /* Largest portion of the records a feature may be non-zero in to be bundled */
+  private static final double MAX_DENSITY = 0.5;
+
+  /* Number of different class codes records can have */
+  private final int numClasses;
+  /* Index of each training record in the codes */
+  private final IdentityHashMap<Record, Integer> rowIndexes;
+  /* For each bundle, the code of each record */
+  private final int[][] codes;
+  /* For each bundle, its features in increasing order */
+  private final int[][] bundleFeatures;
+  /* For each bundle, the first code of each of its features' bins */
+  private final int[][] offsets;
+  /* For each bundle and feature, the smallest value in each of the feature's bins */
+  private final double[][][] lowers;
+  /* For each bundle and feature, the largest value in each of the feature's bins */
+  private final double[][][] uppers;
+  /* Features that were bundled */
+  private final HashSet<Integer> bundled;
+
+  /* Constructor, bundles the sparse features of the specified records so that no
+   * more than the specified portion of them conflict in any bundle. Each feature's
+   * non-zero values are grouped into at most the specified number of bins */
+  public FeatureBundles(List<Record> records, int numClasses, int maxBins, double maxConflictRate) {
+    this.numClasses = numClasses;
+    this.rowIndexes = new IdentityHashMap<>();
+    int numRows = records.size();
+    HashMap<Integer, Column> columns = new HashMap<>();
+    for(Record record : records) {
+      int row = rowIndexes.size();
+      if(rowIndexes.put(record, row) != null) {
+        throw new RuntimeException("The same record cannot be bundled twice.");
+      }
+      Record.SortedRow sortedRow = record.getSortedRow();
+      for(int i = 0; i < sortedRow.features.length; i++) {
+        if(sortedRow.values[i] != 0) {
+          columns.computeIfAbsent(sortedRow.features[i], f -> new Column(f)).add(row, sortedRow.values[i]);
+        }
+      }
+    }
+    ArrayList<Column> sparse = new ArrayList<>();
+    for(Column column : columns.values()) {
+      if(column.size <= MAX_DENSITY*numRows) {
+        column.setBins(maxBins);
+        sparse.add(column);
+      }
+    }
+    // Features that are non-zero most often are placed first, as in LightGBM
+    sparse.sort((a, b) -> (a.size != b.size) ? Integer.compare(b.size, a.size) : Integer.compare(a.feature, b.feature));
+    int maxConflicts = (int)(maxConflictRate*numRows);
+    ArrayList<Bundle> bundles = new ArrayList<>();
+    for(Column column : sparse) {
+      Bundle target = null;
+      for(Bundle bundle : bundles) {
+        int conflicts = bundle.conflicts(column, maxConflicts - bundle.numConflicts);
+        if(conflicts >= 0) {
+          bundle.numConflicts += conflicts;
+          target = bundle;
+          break;
+        }
+      }
+      if(target == null) {
+        target = new Bundle(numRows);
+        bundles.add(target);
+      }
+      target.add(column);
+    }
+    this.bundled = new HashSet<>();
+    for(Column column : sparse) {
+      bundled.add(column.feature);
+    }
+    this.codes = new int[bundles.size()][];
+    this.bundleFeatures = new int[bundles.size()][];
+    this.offsets = new int[bundles.size()][];
+    this.lowers = new double[bundles.size()][][];
+    this.uppers = new double[bundles.size()][][];
+    for(int b = 0; b < bundles.size(); b++) {
+      Bundle bundle = bundles.get(b);
+      bundle.columns.sort((x, y) -> Integer.compare(x.feature, y.feature));
+      int numFeatures = bundle.columns.size();
+      bundleFeatures[b] = new int[numFeatures];
+      offsets[b] = new int[numFeatures];
+      lowers[b] = new double[numFeatures][];
+      uppers[b] = new double[numFeatures][];
+      int offset = 1;
+      for(int j = 0; j < numFeatures; j++) {
+        Column column = bundle.columns.get(j);
+        bundleFeatures[b][j] = column.feature;
+        offsets[b][j] = offset;
+        lowers[b][j] = column.lowers;
+        uppers[b][j] = column.uppers;
+        offset += column.uppers.length;
+      }
+      codes[b] = new int[numRows];
+      // Conflicting records keep the code of the feature added to the bundle last
+      for(Column column : bundle.added) {
+        int j = Arrays.binarySearch(bundleFeatures[b], column.feature);
+        for(int i = 0; i < column.size; i++) {
+          codes[b][column.rows[i]] = offsets[b][j] + column.bin(column.values[i]);
+        }
+      }
+    }
+  }
+
+  /* Returns the number of bundles */
+  public int getNumBundles() {
+    return codes.length;
+  }
+
+  /* Returns the number of features that were bundled */
+  public int getNumBundled() {
+    return bundled.size();
+  }
+
+  /* Returns whether the specified feature is in one of the bundles */
+  public boolean isBundled(int feature) {
+    return bundled.contains(feature);
+  }
+
+  /* Returns the rows of the specified records, which must have been among the
+   * records that were bundled */
+  public NodeRows getNodeRows(List<Record> records) {
+    NodeRows nodeRows = new NodeRows(records.size());
+    int r = 0;
+    for(Record record : records) {
+      Integer row = rowIndexes.get(record);
+      if(row == null) {
+        throw new RuntimeException("Record was not among the bundled records.");
+      }
+      nodeRows.rows[r] = row;
+      nodeRows.classCodes[r] = record.getClassCode();
+      nodeRows.weights[r] = record.getWeight();
+      nodeRows.totalWeight += record.getWeight();
+      r++;
+    }
+    return nodeRows;
+  }
+
+  /* Builds the class histogram of the specified bundle over the specified rows and
+   * offers every threshold between consecutive non-empty bins of each of the
+   * bundle's features that is in the specified set to the specified heap. The
+   * specified class frequencies are those of the rows */
+  public void addBundleConditions(int bundle, NodeRows nodeRows, int[] classFreqs, Set<Integer> features, CandidateHeap conditions) {
+    boolean considered = false;
+    for(int feature : bundleFeatures[bundle]) {
+      considered |= features.contains(feature);
+    }
+    if(!considered) {
+      return;
+    }
+    int[] bundleCodes = codes[bundle];
+    int numCodes = offsets[bundle][offsets[bundle].length-1] + uppers[bundle][uppers[bundle].length-1].length;
+    int[] histogram = new int[numCodes*numClasses];
+    int[] rows = nodeRows.rows;
+    for(int r = 0; r < rows.length; r++) {
+      histogram[bundleCodes[rows[r]]*numClasses + nodeRows.classCodes[r]] += nodeRows.weights[r];
+    }
+    int totalWeight = nodeRows.totalWeight;
+    int[] freqsLeft = new int[numClasses];
+    int[] zeroFreqs = new int[numClasses];
+    int[] binFreqs = new int[numClasses];
+    for(int j = 0; j < bundleFeatures[bundle].length; j++) {
+      int feature = bundleFeatures[bundle][j];
+      if(!features.contains(feature)) {
+        continue;
+      }
+      int offset = offsets[bundle][j];
+      double[] lower = lowers[bundle][j];
+      double[] upper = uppers[bundle][j];
+      // Records that are zero for the feature are those not in any of its bins
+      System.arraycopy(classFreqs, 0, zeroFreqs, 0, numClasses);
+      for(int k = 0; k < upper.length; k++) {
+        for(int c = 0; c < numClasses; c++) {
+          zeroFreqs[c] -= histogram[(offset+k)*numClasses + c];
+        }
+      }
+      // Sweep the bins in order of value with the zero bin placed among them
+      int firstPositive = 0;
+      while(firstPositive < upper.length && upper[firstPositive] < 0) {
+        firstPositive++;
+      }
+      Arrays.fill(freqsLeft, 0);
+      double previous = Double.NaN;
+      for(int k = 0; k <= upper.length; k++) {
+        double binLower = 0;
+        double binUpper = 0;
+        if(k == firstPositive) {
+          System.arraycopy(zeroFreqs, 0, binFreqs, 0, numClasses);
+        } else {
+          int index = (k < firstPositive) ? k : k-1;
+          binLower = lower[index];
+          binUpper = upper[index];
+          System.arraycopy(histogram, (offset+index)*numClasses, binFreqs, 0, numClasses);
+        }
+        if(DecisionTree.sumArray(binFreqs) == 0) {
+          continue;
+        }
+        if(!Double.isNaN(previous)) {
+          double impurity = SplitStrategy.calcWeightedGiniImpurityFromTotals(freqsLeft, classFreqs, totalWeight);
+          conditions.offer(feature, 0.5*(previous + binLower), impurity);
+        }
+        for(int c = 0; c < numClasses; c++) {
+          freqsLeft[c] += binFreqs[c];
+        }
+        previous = binUpper;
+      }
+    }
+  }
+
+  /* Indexes in the codes, class codes and weights of the records reaching a node */
+  public static class NodeRows {
+    final int[] rows;
+    final int[] classCodes;
+    final int[] weights;
+    int totalWeight;
+
+    NodeRows(int numRows) {
+      this.rows = new int[numRows];
+      this.classCodes = new int[numRows];
+      this.weights = new int[numRows];
+    }
+  }
+
+  /* Non-zero values of a single feature and the bins they are grouped into */
+  private static class Column {
+    final int feature;
+    int[] rows;
+    double[] values;
+    int size;
+    /* Smallest and largest value in each bin, in increasing order */
+    double[] lowers;
+    double[] uppers;
+
+    Column(int feature) {
+      this.feature = feature;
+      this.rows = new int[4];
+      this.values = new double[4];
+    }
+
+    void add(int row, double value) {
+      if(size == rows.length) {
+        rows = Arrays.copyOf(rows, 2*size);
+        values = Arrays.copyOf(values, 2*size);
+      }
+      rows[size] = row;
+      values[size++] = value;
+    }
+
+    /* Groups the distinct values into at most the specified number of bins, each
+     * holding close to the same number of values. Negative and positive values are
+     * never put in the same bin, so there are at least two bins if the feature has
+     * both, and the bins are shared between the signs in proportion to their values */
+    void setBins(int maxBins) {
+      double[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      ArrayList<double[]> bins = new ArrayList<>();
+      int numBins = Math.max(1, maxBins);
+      int firstPositive = 0;
+      while(firstPositive < size && sorted[firstPositive] < 0) {
+        firstPositive++;
+      }
+      if(firstPositive == 0 || firstPositive == size) {
+        addBins(sorted, 0, size, numBins, bins);
+      } else {
+        // Zero lies between the two signs, a bin holding both would put the zero
+        // records inside it
+        int negativeBins = (int)Math.max(1, Math.min(numBins-1, Math.round((double)numBins*firstPositive/size)));
+        addBins(sorted, 0, firstPositive, negativeBins, bins);
+        addBins(sorted, firstPositive, size, Math.max(1, numBins-negativeBins), bins);
+      }
+      lowers = new double[bins.size()];
+      uppers = new double[bins.size()];
+      for(int k = 0; k < bins.size(); k++) {
+        lowers[k] = bins.get(k)[0];
+        uppers[k] = bins.get(k)[1];
+      }
+    }
+
+    /* Adds the smallest and largest value of each of at most the specified number
+     * of bins, each holding close to the same number of the sorted values between
+     * the specified indexes, to the specified list */
+    private static void addBins(double[] sorted, int from, int to, int numBins, ArrayList<double[]> bins) {
+      double perBin = Math.max(1.0, (double)(to-from)/numBins);
+      int start = from;
+      for(int k = 1; start < to; k++) {
+        int end = Math.max(start+1, from + (int)Math.ceil(k*perBin));
+        end = Math.min(end, to);
+        // Equal values stay in the same bin
+        while(end < to && sorted[end] == sorted[end-1]) {
+          end++;
+        }
+        bins.add(new double[]{sorted[start], sorted[end-1]});
+        start = end;
+      }
+    }
+
+    /* Returns the index of the bin holding the specified value */
+    int bin(double value) {
+      int index = Arrays.binarySearch(uppers, value);
+      return (index < 0) ? -index-1 : index;
+    }
+  }
+
+  /* Features being packed into a single bundle */
+  private static class Bundle {
+    /* Records that are non-zero for some feature of the bundle */
+    final long[] occupied;
+    /* Features in the order they were added */
+    final ArrayList<Column> added;
+    /* Features of the bundle, sorted by feature once bundling is done */
+    final ArrayList<Column> columns;
+    int numConflicts;
+
+    Bundle(int numRows) {
+      this.occupied = new long[(numRows + 63) >>> 6];
+      this.added = new ArrayList<>();
+      this.columns = new ArrayList<>();
+    }
+
+    /* Returns the number of records the specified feature would conflict on, or -1
+     * if that is more than the specified maximum */
+    int conflicts(Column column, int maxConflicts) {
+      int conflicts = 0;
+      for(int i = 0; i < column.size; i++) {
+        int row = column.rows[i];
+        if((occupied[row >>> 6] & (1L << row)) != 0 && ++conflicts > maxConflicts) {
+          return -1;
+        }
+      }
+      return conflicts;
+    }
+
+    void add(Column column) {
+      for(int i = 0; i < column.size; i++) {
+        int row = column.rows[i];
+        occupied[row >>> 6] |= 1L << row;
+      }
+      added.add(column);
+      columns.add(column);
+    }
+  }
+}
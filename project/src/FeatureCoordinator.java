@@ -0,0 +1,194 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Coordinator of feature-parallel training. Launches worker JVMs on this machine,
+ * which connect back to it over loopback sockets, and sends each worker the values
+ * of its shard of the features for every training record. Features are dealt out
+ * largest first to the worker holding the fewest values so far. Scoring the
+ * axis-parallel candidates of a node then sends each worker only a bitmap of the
+ * rows reaching the node, and the best candidates of all of the workers are merged.
+ * A CandidateHeap keeps the same candidates whatever order they are offered in, so
+ * the merged candidates are those found by scoring every feature in this process.
+ * Workers are run with FeatureWorker, so they could equally be started on other
+ * machines and pointed at the coordinator's port */
+public class FeatureCoordinator {
+
+  /* Milliseconds to wait for the workers to connect */
+  private static final int CONNECT_TIMEOUT = 60000;
+
+  /* Number of training records sent to the workers */
+  private final int numRows;
+  /* Position of each training record sent to the workers */
+  private final IdentityHashMap<Record, Integer> rowIndices;
+  /* The worker processes */
+  private final ArrayList<Process> processes;
+  /* Connections to the workers */
+  private final ArrayList<Socket> sockets;
+  private final ArrayList<DataInputStream> inputs;
+  private final ArrayList<DataOutputStream> outputs;
+
+  /* Constructor, launches the builder's number of workers and sends them the
+   * specified records, whose class codes are less than the specified number of
+   * classes */
+  public FeatureCoordinator(List<Record> records, int numClasses, DecisionTreeBuilder builder) {
+    this.numRows = records.size();
+    this.rowIndices = new IdentityHashMap<>();
+    this.processes = new ArrayList<>();
+    this.sockets = new ArrayList<>();
+    this.inputs = new ArrayList<>();
+    this.outputs = new ArrayList<>();
+    int row = 0;
+    for(Record record : records) {
+      rowIndices.put(record, row++);
+    }
+    try(ServerSocket server = new ServerSocket(0, builder.numWorkers, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout(CONNECT_TIMEOUT);
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      for(int w = 0; w < builder.numWorkers; w++) {
+        processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "FeatureWorker",
+                                         server.getInetAddress().getHostAddress(), Integer.toString(server.getLocalPort()))
+                                         .inheritIO().start());
+      }
+      for(int w = 0; w < builder.numWorkers; w++) {
+        Socket socket = server.accept();
+        socket.setTcpNoDelay(true);
+        sockets.add(socket);
+        inputs.add(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        outputs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+      }
+      HashMap<Integer, Integer> shards = assignShards(records, builder.numWorkers);
+      for(int w = 0; w < outputs.size(); w++) {
+        sendShard(outputs.get(w), records, shards, w, numClasses, builder);
+      }
+    } catch(IOException e) {
+      close();
+      throw new RuntimeException("Failed to start feature workers.", e);
+    }
+  }
+
+  /* Returns the worker each feature of the specified records is assigned to. The
+   * features with the most non-zero values are assigned first, each to the worker
+   * with the fewest values so far */
+  private static HashMap<Integer, Integer> assignShards(List<Record> records, int numWorkers) {
+    HashMap<Integer, Integer> counts = new HashMap<>();
+    for(Record record : records) {
+      for(int feature : record.keySet()) {
+        counts.merge(feature, 1, Integer::sum);
+      }
+    }
+    ArrayList<Integer> features = new ArrayList<>(counts.keySet());
+    features.sort((a, b) -> !counts.get(a).equals(counts.get(b)) ? Integer.compare(counts.get(b), counts.get(a)) : Integer.compare(a, b));
+    long[] loads = new long[numWorkers];
+    HashMap<Integer, Integer> shards = new HashMap<>();
+    for(int feature : features) {
+      int lightest = 0;
+      for(int w = 1; w < numWorkers; w++) {
+        lightest = (loads[w] < loads[lightest]) ? w : lightest;
+      }
+      shards.put(feature, lightest);
+      loads[lightest] += counts.get(feature);
+    }
+    return shards;
+  }
+
+  /* Sends the options of the split search and the values of the features assigned
+   * to the specified worker to the specified stream */
+  private static void sendShard(DataOutputStream out, List<Record> records, HashMap<Integer, Integer> shards, int worker, int numClasses, DecisionTreeBuilder builder) throws IOException {
+    out.writeInt(numClasses);
+    out.writeInt(builder.numThreads);
+    out.writeInt(builder.maxBuckets);
+    out.writeInt(builder.sketchMinRecords);
+    out.writeInt(builder.sketchSize);
+    out.writeInt(records.size());
+    ArrayList<Map.Entry<Integer, Double>> values = new ArrayList<>();
+    for(Record record : records) {
+      values.clear();
+      for(Map.Entry<Integer, Double> entry : record.entrySet()) {
+        if(shards.get(entry.getKey()) == worker) {
+          values.add(entry);
+        }
+      }
+      out.writeInt(record.getClassCode());
+      out.writeInt(record.getWeight());
+      out.writeInt(values.size());
+      for(Map.Entry<Integer, Double> entry : values) {
+        out.writeInt(entry.getKey());
+        out.writeDouble(entry.getValue());
+      }
+    }
+    out.flush();
+  }
+
+  /* Returns a heap of the specified number of axis-parallel candidates with the
+   * lowest impurity over the specified records, which must be among those sent to
+   * the workers. The workers score their features concurrently */
+  public synchronized CandidateHeap getBaseConditions(List<Record> records, int numConditions) {
+    long[] rows = new long[(numRows + 63) >>> 6];
+    for(Record record : records) {
+      Integer row = rowIndices.get(record);
+      if(row == null) {
+        throw new RuntimeException("Record was not sent to the feature workers.");
+      }
+      rows[row >>> 6] |= 1L << row;
+    }
+    CandidateHeap conditions = new CandidateHeap(numConditions);
+    try {
+      for(DataOutputStream out : outputs) {
+        out.writeByte(FeatureWorker.QUERY);
+        out.writeInt(numConditions);
+        out.writeInt(rows.length);
+        for(long word : rows) {
+          out.writeLong(word);
+        }
+        out.flush();
+      }
+      for(DataInputStream in : inputs) {
+        conditions.merge(CandidateHeap.read(in, numConditions));
+      }
+    } catch(IOException e) {
+      throw new RuntimeException("Lost connection to a feature worker.", e);
+    }
+    return conditions;
+  }
+
+  /* Tells the workers to exit and waits for them to */
+  public void close() {
+    for(DataOutputStream out : outputs) {
+      try {
+        out.writeByte(FeatureWorker.SHUTDOWN);
+        out.flush();
+      } catch(IOException e) {
+        // The worker has already gone
+      }
+    }
+    for(Socket socket : sockets) {
+      try {
+        socket.close();
+      } catch(IOException e) {
+        e.printStackTrace();
+      }
+    }
+    for(Process process : processes) {
+      try {
+        if(!process.waitFor(10, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch(InterruptedException e) {
+        process.destroyForcibly();
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/* Worker process of feature-parallel training. Connects to a FeatureCoordinator,
+ * receives the values of its shard of the features for every training record, and
+ * then answers queries from the coordinator, each of which gives the rows reaching
+ * a node of the tree as a bitmap. The worker scores the axis-parallel split
+ * candidates of its features over those rows with a SplitStrategy of its own and
+ * replies with the best ones, so only bitmaps and candidates cross the connection.
+ * Usage: FeatureWorker coordinator_host coordinator_port */
+public class FeatureWorker {
+
+  /* Message asking for the best candidates of a node */
+  public static final int QUERY = 1;
+  /* Message telling the worker to exit */
+  public static final int SHUTDOWN = 2;
+
+  /* The training records holding only the worker's features, in the
+   * coordinator's order */
+  private final ArrayList<Record> records;
+  /* Scores the candidates of the worker's features */
+  private final SplitStrategy splitStrategy;
+
+  public static void main(String[] args) {
+    try(Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      new FeatureWorker(in).serve(in, out);
+    } catch(IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /* Constructor, reads the options of the split search and the worker's shard of
+   * the training records from the specified stream */
+  public FeatureWorker(DataInputStream in) throws IOException {
+    int numClasses = in.readInt();
+    DecisionTreeBuilder builder = new DecisionTreeBuilder()
+                      .numThreads(in.readInt())
+                      .maxBuckets(in.readInt())
+                      .sketchMinRecords(in.readInt())
+                      .sketchSize(in.readInt());
+    this.splitStrategy = new SplitStrategy(builder);
+    splitStrategy.setNumClasses(numClasses);
+    int numRows = in.readInt();
+    this.records = new ArrayList<>(numRows);
+    for(int row = 0; row < numRows; row++) {
+      int classCode = in.readInt();
+      int weight = in.readInt();
+      int numValues = in.readInt();
+      HashMap<Integer, Double> features = new HashMap<>();
+      for(int i = 0; i < numValues; i++) {
+        features.put(in.readInt(), in.readDouble());
+      }
+      records.add(new Record(classCode, null, features, weight));
+    }
+  }
+
+  /* Answers queries read from the specified stream until told to exit */
+  public void serve(DataInputStream in, DataOutputStream out) throws IOException {
+    while(in.readByte() == QUERY) {
+      int numConditions = in.readInt();
+      long[] rows = new long[in.readInt()];
+      for(int i = 0; i < rows.length; i++) {
+        rows[i] = in.readLong();
+      }
+      splitStrategy.getBaseConditions(getReachingRecords(rows), numConditions, SplitContext.root()).write(out);
+      out.flush();
+    }
+  }
+
+  /* Returns the records whose rows are set in the specified bitmap, in order */
+  private List<Record> getReachingRecords(long[] rows) {
+    ArrayList<Record> reaching = new ArrayList<>();
+    for(int word = 0; word < rows.length; word++) {
+      for(long bits = rows[word]; bits != 0; bits &= bits-1) {
+        reaching.add(records.get((word << 6) + Long.numberOfTrailingZeros(bits)));
+      }
+    }
+    return reaching;
+  }
+}
@@ -1,8 +1,13 @@
 import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* Splits decision trees on conditions that consider boolean combinations of multiple
- * features */
+ * features. Nodes may be split concurrently: every call works on its own copy of
+ * the splitter's parameters and random number generator, seeded from the node's
+ * position in the tree so results do not depend on the order nodes are split in */
 public class GeneticSplitStrategy extends SplitStrategy {
 
   /* Maximum number of conditions considered in the genetic algorithm */
@@ -12,8 +17,26 @@ public class GeneticSplitStrategy extends SplitStrategy {
   /* Percentage of total records added to the minimum number of conditions in the
    * genetic algorithm */
   private final double geneConditionsPercent;
-  /* Used to build genetic algorithm splitter. */
-  private GeneticSplitter.GeneticSplitterBuilder geneticBuilder;
+  /* Parameters shared by every genetic algorithm splitter, copied for each call */
+  private final GeneticSplitter.GeneticSplitterBuilder geneticBuilder;
+  /* Seed from which the random number generator of each node is derived */
+  private final long seed;
+  /* Portion of each population seeded from the parent node's hyperplane */
+  private final double warmStartFraction;
+  /* Convergence statistics of the genetic algorithm for the nodes split so far in
+   * each tree. The strategy also grows the tree used to select a pruning alpha,
+   * whose nodes are kept apart from the tree being built */
+  private final ConcurrentHashMap<DecisionTree, ConvergenceStats> stats;
+  /* Maximum time spent on each tree in milliseconds, 0 if unlimited */
+  private final long budgetMillis;
+  /* Maximum number of fitness evaluations made for each tree, 0 if unlimited */
+  private final long budgetEvaluations;
+  /* Whether searches stop as soon as their share of the budget runs out */
+  private final boolean anytime;
+  /* Limit on the time or fitness evaluations spent on each tree. Every tree the
+   * strategy grows, including the one used to select a pruning alpha, starts
+   * with the whole budget and its own root weight */
+  private final ConcurrentHashMap<DecisionTree, TrainingBudget> budgets;
 
   /* Default Constructor */
   public GeneticSplitStrategy(DecisionTreeBuilder builder) {
@@ -21,27 +44,74 @@ public class GeneticSplitStrategy extends SplitStrategy {
     this.maxGeneConditions = builder.maxGeneConditions;
     this.minGeneConditions = builder.minGeneConditions;
     this.geneConditionsPercent = builder.geneConditionsPercent;
-    this.geneticBuilder = builder.geneticBuilder;
+    this.geneticBuilder = new GeneticSplitter.GeneticSplitterBuilder(builder.geneticBuilder);
+    this.seed = builder.rand.nextLong();
+    this.warmStartFraction = builder.warmStartFraction;
+    this.stats = new ConcurrentHashMap<>();
+    this.budgetMillis = builder.budgetMillis;
+    this.budgetEvaluations = builder.budgetEvaluations;
+    this.anytime = builder.anytime;
+    this.budgets = new ConcurrentHashMap<>();
+  }
+
+  /* Returns the convergence statistics for the nodes of the specified tree */
+  public ConvergenceStats getConvergenceStats(DecisionTree tree) {
+    return stats.computeIfAbsent(tree, (t) -> new ConvergenceStats());
+  }
+
+  /* Returns the progress of the specified tree's budget, or null if the budget is
+   * unlimited or nothing has been allocated from it yet */
+  @Override
+  public TrainingBudget.Progress getBudgetProgress(DecisionTree tree) {
+    TrainingBudget budget = budgets.get(tree);
+    return (budget == null || !budget.isLimited()) ? null : budget.getProgress();
+  }
+
+  /* Continues the specified tree's budget from the specified progress */
+  @Override
+  public void restoreBudgetProgress(DecisionTree tree, TrainingBudget.Progress progress) {
+    if(progress != null) {
+      budgets.computeIfAbsent(tree, (t) -> new TrainingBudget(budgetMillis, budgetEvaluations, anytime)).restore(progress);
+    }
   }
 
   /* Returns the split condition that produces the purest partition of the reaching
-   * records */
-   @Override
-  public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree) {
-    setTargetFeatures(records, tree);
-    GeneticSplitter GASplitter = geneticBuilder.records(records)
-                                        .classIndexMap(tree.getClassIndexMap())
+   * records. If warm starting is enabled and the node's parent was split on a
+   * hyperplane, part of the population is seeded from that hyperplane */
+  @Override
+  public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree, SplitContext context) {
+    GeneticSplitter.GeneticSplitterBuilder nodeBuilder = new GeneticSplitter.GeneticSplitterBuilder(geneticBuilder)
+                                        .rand(new Random(context.deriveSeed(seed)));
+    setTargetFeatures(records, nodeBuilder, context);
+    ConditionNode.Linear warmStart = null;
+    SplitCondition parentCondition = context.getParentCondition();
+    if(warmStartFraction > 0 && parentCondition != null && parentCondition.getCondition() instanceof ConditionNode.Linear) {
+      warmStart = (ConditionNode.Linear)parentCondition.getCondition();
+    }
+    TrainingBudget.Allocation allocation = null;
+    TrainingBudget budget = budgets.computeIfAbsent(tree, (t) -> new TrainingBudget(budgetMillis, budgetEvaluations, anytime));
+    if(budget.isLimited()) {
+      int[] classFreqs = DecisionTree.getClassFreqs(records, tree.getNumClasses());
+      allocation = budget.allocate(DecisionTree.sumArray(classFreqs), getGiniImpurity(classFreqs));
+    }
+    GeneticSplitter GASplitter = nodeBuilder.records(records)
+                                        .numClasses(tree.getNumClasses())
+                                        .warmStart(warmStart)
+                                        .warmStartFraction(warmStartFraction)
+                                        .allocation(allocation)
                                         .build();
-    return GASplitter.getBestSplitCondition();
+    SplitCondition condition = GASplitter.getBestSplitCondition();
+    getConvergenceStats(tree).record(context.getDepth(), GASplitter);
+    return condition;
   }
 
-  /* Sets the targets features and top conditions used by the splitter. These features
-   * and conditions are the ones that would have resulted in the purest traditional
-   * decision tree split. */
-  private void setTargetFeatures(List<Record> records, DecisionTree tree) {
+  /* Sets the targets features and top conditions used by the specified splitter
+   * builder for the node described by the specified context. These features and conditions are the ones that would have resulted in
+   * the purest traditional decision tree split. */
+  private void setTargetFeatures(List<Record> records, GeneticSplitter.GeneticSplitterBuilder nodeBuilder, SplitContext context) {
     double classFactor = 1.0/Record.getAllClasses(records).size();
     int numCond = (int)Math.min(classFactor*records.size()*geneConditionsPercent + minGeneConditions, maxGeneConditions);
-    List<SplitCondition> conditions = mostPureConditions(numCond, getBaseConditions(records), records, tree);
+    List<SplitCondition> conditions = getBaseConditions(records, numCond, context).toSplitConditions(numCond);
     TreeSet<Integer> features = new TreeSet<>();
     for(SplitCondition condition : conditions) {
       features.add(condition.getFeature());
@@ -50,6 +120,43 @@ public class GeneticSplitStrategy extends SplitStrategy {
     for(int i = 0; i < targetFeatures.length; i++) {
       targetFeatures[i] = features.pollFirst();
     }
-    geneticBuilder = geneticBuilder.targetFeatures(targetFeatures).topConditions(conditions);
+    nodeBuilder.targetFeatures(targetFeatures).topConditions(conditions);
+  }
+
+  /* Number of nodes split, generations run and full fitness evaluations made by
+   * the genetic algorithm at each depth of the tree */
+  public static class ConvergenceStats {
+    /* Maps each depth to its node, warm started node, generation and evaluation
+     * counts */
+    private final TreeMap<Integer, long[]> depthTotals = new TreeMap<>();
+
+    /* Adds the statistics of the specified splitter's last run at a node of the
+     * specified depth */
+    public synchronized void record(int depth, GeneticSplitter splitter) {
+      long[] totals = depthTotals.computeIfAbsent(depth, (d) -> new long[4]);
+      totals[0]++;
+      totals[1] += splitter.isWarmStarted() ? 1 : 0;
+      totals[2] += splitter.getNumGenerations();
+      totals[3] += splitter.getNumEvaluations();
+    }
+
+    /* Returns the average number of generations run per node at the specified
+     * depth, or 0 if no nodes were split at that depth */
+    public synchronized double getAverageGenerations(int depth) {
+      long[] totals = depthTotals.get(depth);
+      return (totals == null) ? 0 : (1.0*totals[2])/totals[0];
+    }
+
+    /* Returns a line per depth describing the statistics at that depth */
+    @Override
+    public synchronized String toString() {
+      String result = "";
+      for(int depth : depthTotals.keySet()) {
+        long[] totals = depthTotals.get(depth);
+        result += String.format("depth %d: nodes = %d, warm started = %d, generations/node = %.2f, evaluations/node = %.1f%n",
+                                depth, totals[0], totals[1], (1.0*totals[2])/totals[0], (1.0*totals[3])/totals[0]);
+      }
+      return result;
+    }
   }
 }
@@ -1,18 +1,26 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.function.Predicate;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /* Uses a genetic algorithm to determine the oblique split to be made on a list of
- * records */
+ * records. The population can be divided into islands that evolve independently on
+ * their own threads and exchange their best individuals every few generations */
 public class GeneticSplitter {
 
   /* The records being considered when making this split */
   private final List<Record> records;
-  /* Maps each different class label to a different integer index */
-  private final HashMap<String, Integer> classIndexMap;
+  /* Number of different class codes records can have */
+  private final int numClasses;
+  /* Whether each record is from the positive class if the records are from only
+   * two classes, otherwise null */
+  private final boolean[] positiveLabels;
   /* The features which are considered in the split in the order they are represented
    * in individual's genes */
   private final int[] targetFeatures;
@@ -28,189 +36,690 @@ public class GeneticSplitter {
   private final int replacementTournamentSize;
   /* Maximum number of generations */
   private final int maxGenerations;
+  /* Confidence level of the intervals used to race offspring */
+  private static final double RACING_CONFIDENCE = 0.95;
   /* Top conditions used to initialize the population */
   private final List<SplitCondition> topConditions;
+  /* Dense column-major matrix of the target features of the records */
+  private final double[][] columns;
+  /* Kernel used to project the records onto individuals' hyperplanes */
+  private final ProjectionKernel kernel;
+  /* Whether each individual's bias is set to the one that gives the purest split
+   * along its weights whenever its fitness is evaluated, instead of being evolved */
+  private final boolean optimizeBias;
+  /* Codes of the classes of the records */
+  private final int[] classCodes;
+  /* Weights of the records */
+  private final int[] rowWeights;
+  /* Whether offspring are raced on a subsample of the records before being fully
+   * evaluated. The rows of columns, classCodes, rowWeights and positiveLabels are then in a
+   * stratified random order so that every prefix is a stratified subsample */
+  private final boolean racing;
+  /* Number of rows offspring are initially raced on */
+  private final int racingSampleSize;
+  /* Number of islands, each evolving a population of populationSize individuals on
+   * its own thread */
+  private final int numIslands;
+  /* Number of generations between migrations of islands' best individuals */
+  private final int migrationInterval;
+  /* Number of offspring whose full evaluation was skipped by racing on each island */
+  private int[] numRaced;
+  /* Hyperplane found at the parent node, used to seed part of the population, or
+   * null if the population is not warm started */
+  private final ConditionNode.Linear warmStart;
+  /* Portion of the population seeded from warmStart */
+  private final double warmStartFraction;
+  /* Share of a training budget the search may use, null if unlimited */
+  private final TrainingBudget.Allocation allocation;
+  /* Number of generations each island ran for */
+  private int[] numGenerations;
+  /* Number of full fitness evaluations made on each island */
+  private int[] numEvaluations;
 
   /* Private constructor called by the builder */
   private GeneticSplitter(GeneticSplitterBuilder builder) {
     this.records = builder.records;
-    this.classIndexMap = builder.classIndexMap;
+    this.numClasses = builder.numClasses;
     this.targetFeatures = builder.targetFeatures;
     this.rand = builder.rand;
+    this.racing = records.size() >= builder.racingMinRecords && builder.racingSampleSize < records.size();
+    this.racingSampleSize = Math.max(1, builder.racingSampleSize);
+    this.numIslands = Math.max(1, builder.numIslands);
+    this.migrationInterval = Math.max(1, builder.migrationInterval);
+    this.numRaced = new int[numIslands];
+    this.numGenerations = new int[numIslands];
+    this.numEvaluations = new int[numIslands];
+    this.warmStart = builder.warmStart;
+    this.warmStartFraction = builder.warmStartFraction;
+    this.allocation = builder.allocation;
+    // Row order does not change full evaluations, only which rows are sampled
+    List<Record> rows = racing ? stratifiedOrder(records, new Random(rand.nextLong())) : records;
+    this.positiveLabels = (numClasses == 2) ? SplitStrategy.getPositiveLabels(rows) : null;
     this.populationSize = builder.populationSize;
     this.maxBuckets = builder.maxBuckets;
     this.tournamentSize = builder.tournamentSize;
     this.replacementTournamentSize = builder.replacementTournamentSize;
     this.maxGenerations = builder.maxGenerations;
     this.topConditions = builder.topConditions;
+    this.columns = ProjectionKernel.toColumns(rows, targetFeatures);
+    this.kernel = ProjectionKernel.getInstance();
+    this.optimizeBias = builder.optimizeBias;
+    this.classCodes = new int[records.size()];
+    this.rowWeights = new int[records.size()];
+    int r = 0;
+    for(Record record : rows) {
+      classCodes[r] = record.getClassCode();
+      rowWeights[r++] = record.getWeight();
+    }
   }
 
   /* Return the best split condition found after the maximum number of
-   * generations */
+   * generations. If the search has a budget allocation that runs out before any
+   * individual is evaluated, the purest of the top conditions is returned */
   public SplitCondition getBestSplitCondition() {
     if(targetFeatures.length == 0) {
       return null;
     }
-    Individual[] population = initializePopulation();
-    if(population == null) {
-      return null;
+    Island[] islands = new Island[numIslands];
+    if(numIslands == 1) {
+      islands[0] = new Island(0, rand, null, null);
+      islands[0].evolve();
+    } else {
+      // Each island publishes its best individual into one of two slots by the
+      // parity of the migration, so a slot is never rewritten while it is read.
+      // Migrants are tagged with their migration so stale ones are recognized
+      AtomicReferenceArray<Migrant> migrants = new AtomicReferenceArray<>(2*numIslands);
+      Phaser migrations = new Phaser(numIslands);
+      ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+      for(int i = 0; i < numIslands; i++) {
+        Island island = new Island(i, new Random(rand.nextLong()), migrants, migrations);
+        islands[i] = island;
+        tasks.add(() -> {
+          try {
+            island.evolve();
+            return true;
+          } catch(Exception e) {
+            e.printStackTrace();
+            return false;
+          } finally {
+            island.leave();
+          }
+        });
+      }
+      DataMiningUtil.runTasks(tasks, numIslands);
     }
     Individual best = null;
-    for(Individual member : population) {
-      if(best == null || member.updateFitness() > best.fitness) {
-        best = member;
-      }
-    }
-    double prevAvgFitness = -1;
-    for(int gen = 0; gen < maxGenerations; gen++) {
-      double curAvgFitness = getAverageFitness(population);
-      if(curAvgFitness <= prevAvgFitness && gen >= 3) {
-        return best.toSplitCondition();
-      }
-      prevAvgFitness = curAvgFitness;
-      for(int c = 0; c < populationSize; c+=2) {
-        if(best != null && best.fitness == 1.0) {
-          // Optimal split was found
-          return best.toSplitCondition();
-        }
-        Individual parent1 = selectParent(population);
-        Individual parent2 = selectParent(population);
-        Individual[] children = intermediateRecombination(parent1, parent2);
-        mutate(children[0]);
-        mutate(children[1]);
-        if(best == null || children[0].updateFitness() > best.fitness) {
-          best = children[0];
-        }
-        if(best == null || children[1].updateFitness() > best.fitness) {
-          best = children[1];
-        }
-        replaceMembers(population, children);
+    for(Island island : islands) {
+      if(island.best != null && (best == null || island.best.fitness > best.fitness)) {
+        best = island.best;
       }
     }
-    return best!= null ? best.toSplitCondition() : null;
+    if(best == null && allocation != null && !topConditions.isEmpty()) {
+      return topConditions.get(0);
+    }
+    return best != null ? best.toSplitCondition() : null;
   }
 
-  /* Returns the average fitness of a member of the population */
-  private double getAverageFitness(Individual[] population) {
-    double sum = 0;
-    for(Individual member : population) {
-      sum += member.fitness;
+  /* Returns the number of offspring whose full evaluation was skipped by racing
+   * during the last call to getBestSplitCondition */
+  public int getNumRaced() {
+    int total = 0;
+    for(int raced : numRaced) {
+      total += raced;
     }
-    return sum/population.length;
+    return total;
   }
 
-  /* Selects to members of the specified population and replaces them with the
-   * specified children */
-  private void replaceMembers(Individual[] population, Individual[] children) {
-    int worstIndex1 = rand.nextInt(population.length);
-    for(int i = 2; i <= replacementTournamentSize; i++) {
-      int nextIndex = rand.nextInt(population.length);
-      if(population[nextIndex].fitness < population[worstIndex1].fitness) {
-        worstIndex1 = nextIndex;
-      }
-    }
-    int worstIndex2;
-    do {
-      worstIndex2 = rand.nextInt(population.length);
-    } while(worstIndex1 == worstIndex2);
-    for(int i = 2; i <= replacementTournamentSize; i++) {
-      int nextIndex;
-      do {
-        nextIndex = rand.nextInt(population.length);
-      } while(nextIndex == worstIndex1);
-      if(population[nextIndex].fitness < population[worstIndex2].fitness) {
-        worstIndex2 = nextIndex;
-      }
+  /* Returns the largest number of generations any island ran for during the last
+   * call to getBestSplitCondition */
+  public int getNumGenerations() {
+    int max = 0;
+    for(int generations : numGenerations) {
+      max = Math.max(max, generations);
     }
-    population[worstIndex1] = children[0];
-    population[worstIndex2] = children[1];
+    return max;
   }
 
-  /* Mutates the childs genes using Gaussian Convolution */
-  private void mutate(Individual child) {
-    double noiseProb = 1.0;
-    double std = 0.1;
-    for(int i = 0; i < child.genes.length; i++) {
-      if(noiseProb >= rand.nextDouble()) {
-        child.genes[i]+=rand.nextGaussian()*std;
-      }
+  /* Returns the number of full fitness evaluations made during the last call to
+   * getBestSplitCondition */
+  public int getNumEvaluations() {
+    int total = 0;
+    for(int evaluations : numEvaluations) {
+      total += evaluations;
     }
+    return total;
   }
 
-  /* Produces child instances from the specified parents using intermediate recombination */
-  private Individual[] intermediateRecombination(Individual parent1, Individual parent2) {
-    double p = 0.25;
-    Individual[] children = new Individual[2];
-    children[0] = new Individual();
-    children[1] = new Individual();
-    for(int i = 0; i < parent1.genes.length; i++) {
-      double a = (2*p+1)*rand.nextDouble()-p;
-      double b = (2*p+1)*rand.nextDouble()-p;
-      double x = a*parent1.genes[i] + (1-a)*parent2.genes[i];
-      double y = b*parent2.genes[i] + (1-b)*parent1.genes[i];
-      children[0].genes[i] = x;
-      children[1].genes[i] = y;
-    }
-    return children;
+  /* Returns whether part of the population was seeded from the parent node's
+   * hyperplane */
+  public boolean isWarmStarted() {
+    return getWarmStartGenes() != null;
   }
 
-  /* Swaps the values at the same index in each parent at random to produce child instances */
-  private Individual[] uniformCrossover(Individual parent1, Individual parent2) {
-    double swapProb = 1/parent1.genes.length;
-    Individual[] children = new Individual[2];
-    children[0] = new Individual();
-    children[1] = new Individual();
-    for(int i = 0; i < parent1.genes.length; i++) {
-      if(swapProb >= rand.nextDouble()) {
-        children[0].genes[i] = parent2.genes[i];
-        children[1].genes[i] = parent1.genes[i];
-      } else {
-        children[0].genes[i] = parent1.genes[i];
-        children[1].genes[i] = parent2.genes[i];
+  /* Returns genes for the warm start hyperplane remapped onto the target features,
+   * or null if there is no warm start or it has no weight on any target feature */
+  private double[] getWarmStartGenes() {
+    if(warmStart == null || warmStartFraction <= 0) {
+      return null;
+    }
+    double[] genes = new double[targetFeatures.length+1];
+    boolean overlaps = false;
+    for(int k = 0; k < warmStart.size(); k++) {
+      int i = Arrays.binarySearch(targetFeatures, warmStart.getFeature(k));
+      if(i >= 0) {
+        genes[i] = warmStart.getWeight(k);
+        overlaps = true;
       }
     }
-    return children;
+    genes[targetFeatures.length] = warmStart.getBias();
+    return overlaps ? genes : null;
   }
 
-  /* Selects a parent from the population using tournament selection */
-  private Individual selectParent(Individual[] population) {
-    Individual best = population[rand.nextInt(population.length)];
-    for(int i = 2; i <= tournamentSize; i++) {
-      Individual next = population[rand.nextInt(population.length)];
-      if(next.fitness > best.fitness) {
-        best = next;
+  /* Returns the half-width of a Hoeffding confidence interval, at the
+   * RACING_CONFIDENCE level, for a fitness in [0, 1] estimated from the specified
+   * number of records */
+  private static double racingHalfWidth(int numRecords) {
+    return Math.sqrt(Math.log(2/(1-RACING_CONFIDENCE))/(2.0*numRecords));
+  }
+
+  /* Returns the specified records in a random order in which every prefix holds
+   * close to the same proportion of each class as the whole list. Each record is
+   * keyed by its position in a shuffle of its class divided by the class's size */
+  private static List<Record> stratifiedOrder(List<Record> records, Random rand) {
+    HashMap<Integer, List<Record>> classRecords = new HashMap<>();
+    for(Record record : records) {
+      classRecords.putIfAbsent(record.getClassCode(), new ArrayList<>());
+      classRecords.get(record.getClassCode()).add(record);
+    }
+    int n = records.size();
+    Record[] ordered = new Record[n];
+    double[] keys = new double[n];
+    Integer[] order = new Integer[n];
+    int i = 0;
+    for(int code = 0; i < n; code++) {
+      List<Record> members = classRecords.get(code);
+      if(members == null) {
+        continue;
       }
+      Collections.shuffle(members, rand);
+      for(int k = 0; k < members.size(); k++) {
+        ordered[i] = members.get(k);
+        keys[i] = (k + rand.nextDouble())/members.size();
+        order[i] = i;
+        i++;
+      }
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(keys[a], keys[b]));
+    List<Record> result = new ArrayList<>(n);
+    for(int index : order) {
+      result.add(ordered[index]);
     }
-    return best;
+    return result;
   }
 
-  /* Initializes the population. */
-  private Individual[] initializePopulation() {
-    Individual[] population = new Individual[populationSize];
-    int lastGene = targetFeatures.length;
-    for(int p = 0; p < population.length; p++) {
-      population[p] = new Individual();
-      population[p].genes[rand.nextInt(targetFeatures.length)] = 1.0;
-    }
-    HashMap<Integer, List<Double>> featureBucketsMap = new HashMap<>();
-    for(SplitCondition condition : topConditions) {
-      featureBucketsMap.putIfAbsent(condition.getFeature(), new ArrayList<>());
-      featureBucketsMap.get(condition.getFeature()).add(condition.getBucket());
-    }
-    for(int i = 0; i < targetFeatures.length; i++) {
-      int selected = rand.nextInt(population.length);
-      population[selected].genes[i] = 1.0;
-      List<Double> buckets = featureBucketsMap.get(targetFeatures[i]);
+  /* A population evolved with its own random number generator and scratch space.
+   * Islands other than the only one take part in migrations: every
+   * migrationInterval generations each publishes a copy of its best individual and,
+   * once every island still evolving has done the same, replaces its worst member
+   * with the best individual of the previous island in the ring if that is new.
+   * Migrations are the only points at which islands wait for one another */
+  private class Island {
+    /* Index of the island in the ring */
+    final int index;
+    /* Random number generator used only by this island */
+    final Random rand;
+    /* Slots that islands publish their best individuals in, null if alone */
+    final AtomicReferenceArray<Migrant> migrants;
+    /* Barrier at which islands meet to migrate, null if alone */
+    final Phaser migrations;
+    /* Projections of the records onto the hyperplane last evaluated */
+    final double[] projections;
+    /* For each class, space for the sorted projections of the records of that class
+     * and the weights of their rows, used when optimizeBias is true */
+    final double[][] classProjections;
+    final int[][] classWeights;
+    /* Number of rows offspring are currently raced on */
+    int sampleSize;
+    /* Population of the island */
+    Individual[] population;
+    /* Best individual found on this island so far */
+    Individual best;
+    /* Migration of the last migrant received by this island, 0 before the first */
+    int lastMigration;
+    /* Whether the island has left the migrations */
+    boolean left;
+
+    /* Constructor */
+    Island(int index, Random rand, AtomicReferenceArray<Migrant> migrants, Phaser migrations) {
+      this.index = index;
+      this.rand = rand;
+      this.migrants = migrants;
+      this.migrations = migrations;
+      this.projections = new double[records.size()];
+      this.classProjections = new double[numClasses][];
+      this.classWeights = new int[numClasses][];
+      int[] classRows = new int[numClasses];
+      for(int classCode : classCodes) {
+        classRows[classCode]++;
+      }
+      for(int c = 0; c < numClasses; c++) {
+        classProjections[c] = new double[classRows[c]];
+        classWeights[c] = new int[classRows[c]];
+      }
+      this.sampleSize = racingSampleSize;
+      this.left = false;
+      numRaced[index] = 0;
+      numGenerations[index] = 0;
+      numEvaluations[index] = 0;
+    }
+
+    /* Evolves the island's population until it stops improving, an optimal split is
+     * found, the maximum number of generations is reached or the budget allocation
+     * runs out. The allocation is checked between generations, and in anytime mode
+     * also between evaluations, in which case the best individual so far is kept */
+    void evolve() {
+      if(isOutOfBudget(false)) {
+        return;
+      }
+      population = initializePopulation();
+      for(Individual member : population) {
+        if(best != null && isOutOfBudget(true)) {
+          return;
+        }
+        if(best == null || updateFitness(member) > best.fitness) {
+          best = member;
+        }
+      }
+      double prevAvgFitness = -1;
+      for(int gen = 0; gen < maxGenerations; gen++) {
+        if(isOutOfBudget(false)) {
+          return;
+        }
+        numGenerations[index] = gen+1;
+        if(migrations != null && gen > 0 && gen % migrationInterval == 0) {
+          migrate(gen / migrationInterval);
+        }
+        double curAvgFitness = getAverageFitness(population);
+        if(curAvgFitness <= prevAvgFitness && gen >= 3) {
+          return;
+        }
+        prevAvgFitness = curAvgFitness;
+        if(racing && sampleSize < records.size() && best.fitness - curAvgFitness < 2*racingHalfWidth(sampleSize)) {
+          // Population has converged to within the sample's resolution
+          sampleSize = Math.min(records.size(), 2*sampleSize);
+        }
+        for(int c = 0; c < populationSize; c+=2) {
+          if(best != null && best.fitness == 1.0) {
+            // Optimal split was found
+            return;
+          }
+          if(isOutOfBudget(true)) {
+            return;
+          }
+          Individual parent1 = selectParent(population);
+          Individual parent2 = selectParent(population);
+          Individual[] children = intermediateRecombination(parent1, parent2);
+          mutate(children[0]);
+          mutate(children[1]);
+          if(best == null || race(children[0], best) > best.fitness) {
+            best = children[0];
+          }
+          if(best == null || race(children[1], best) > best.fitness) {
+            best = children[1];
+          }
+          replaceMembers(population, children);
+        }
+      }
+    }
+
+    /* Returns whether the budget allocation has run out. Checks made within a
+     * generation, as specified, only count in anytime mode */
+    boolean isOutOfBudget(boolean withinGeneration) {
+      if(allocation == null || (withinGeneration && !allocation.isAnytime())) {
+        return false;
+      }
+      return allocation.isExhausted();
+    }
+
+    /* Publishes the island's best individual for the specified migration, waits
+     * for the other islands still evolving to do the same, then takes in the
+     * previous island's best */
+    void migrate(int migration) {
+      int parity = migration % 2;
+      migrants.set(2*index + parity, new Migrant(best.copy(), migration));
+      migrations.arriveAndAwaitAdvance();
+      int source = (index + numIslands - 1) % numIslands;
+      // Once the source has left, its other slot still holds an older migrant
+      Migrant migrant = migrants.get(2*source + parity);
+      if(migrant == null || migrant.migration <= lastMigration) {
+        return;
+      }
+      lastMigration = migrant.migration;
+      int worst = 0;
+      for(int p = 1; p < population.length; p++) {
+        if(population[p].fitness < population[worst].fitness) {
+          worst = p;
+        }
+      }
+      Individual immigrant = migrant.individual.copy();
+      population[worst] = immigrant;
+      if(immigrant.fitness > best.fitness) {
+        best = immigrant;
+      }
+    }
+
+    /* Stops the island from taking part in further migrations. Its best individual
+     * is left in the slot of the next migration so the next island still sees it */
+    void leave() {
+      if(migrations != null && !left) {
+        left = true;
+        if(best != null) {
+          int nextMigration = migrations.getPhase() + 1;
+          migrants.set(2*index + nextMigration % 2, new Migrant(best.copy(), nextMigration));
+        }
+        migrations.arriveAndDeregister();
+      }
+    }
+
+    /* Sets the fitness of the specified offspring and returns it. When racing, the
+     * offspring is first scored on the current subsample and is only fully evaluated
+     * if the upper end of the confidence interval of its sampled fitness reaches the
+     * specified elite's fitness. Otherwise its sampled fitness is kept, which is
+     * below the elite's */
+    double race(Individual child, Individual elite) {
+      if(racing && elite != null && sampleSize < records.size()) {
+        double sampled = score(child, sampleSize);
+        if(sampled + racingHalfWidth(sampleSize) < elite.fitness) {
+          numRaced[index]++;
+          child.fitness = sampled;
+          return sampled;
+        }
+      }
+      return updateFitness(child);
+    }
+
+    /* Recalculates the specified individual's fitness. The records are projected
+     * onto the individual's hyperplane with the projection kernel, which gives the
+     * same sums as evaluating the condition from toSplitCondition on each record */
+    double updateFitness(Individual individual) {
+      numEvaluations[index]++;
+      individual.fitness = score(individual, records.size());
+      return individual.fitness;
+    }
+
+    /* Returns the fitness of the specified individual on the specified number of
+     * first rows without setting it */
+    double score(Individual individual, int numRows) {
+      if(allocation != null) {
+        allocation.consume(1);
+      }
+      double[] genes = individual.genes;
+      kernel.project(columns, genes, numRows, projections);
+      if(optimizeBias) {
+        double impurity = setOptimalBias(individual, numRows);
+        if(!Double.isNaN(impurity)) {
+          return 1 - impurity;
+        }
+      }
+      double bias = genes[genes.length-1];
+      if(positiveLabels != null) {
+        int positives = 0;
+        int positivesLeft = 0;
+        int totalLeft = 0;
+        int total = 0;
+        for(int r = 0; r < numRows; r++) {
+          int weight = rowWeights[r];
+          if(positiveLabels[r]) {
+            positives += weight;
+          }
+          if(projections[r] - bias < 0) {
+            totalLeft += weight;
+            if(positiveLabels[r]) {
+              positivesLeft += weight;
+            }
+          }
+          total += weight;
+        }
+        return 1 - SplitStrategy.calcWeightedBinaryGiniImpurity(positivesLeft, totalLeft, positives, total);
+      } else {
+        int[] classFreqsLeft = new int[numClasses];
+        int[] classFreqsRight = new int[numClasses];
+        int totalLeft = 0;
+        int total = 0;
+        for(int r = 0; r < numRows; r++) {
+          int weight = rowWeights[r];
+          if(projections[r] - bias < 0) {
+            totalLeft += weight;
+            classFreqsLeft[classCodes[r]] += weight;
+          } else {
+            classFreqsRight[classCodes[r]] += weight;
+          }
+          total += weight;
+        }
+        return 1 - SplitStrategy.calcWeightedGiniImpurity(classFreqsLeft, classFreqsRight, totalLeft, total);
+      }
+    }
+
+    /* Sets the specified individual's bias to the threshold between consecutive
+     * distinct projections of the specified number of first rows that gives the
+     * purest split of those rows and returns the impurity of that split. Every
+     * threshold is swept in order of increasing projection with running class
+     * counts, merging the sorted projections of each class. Each row's projection
+     * is sorted once along with its weight, which is added to the counts as the
+     * sweep passes it. Returns NaN, leaving the individual unchanged, if all of the
+     * projections are equal */
+    double setOptimalBias(Individual individual, int numRows) {
+      int[] counts = new int[numClasses];
+      int[] classTotals = new int[numClasses];
+      int total = 0;
+      for(int r = 0; r < numRows; r++) {
+        int c = classCodes[r];
+        classProjections[c][counts[c]] = projections[r];
+        classWeights[c][counts[c]++] = rowWeights[r];
+        classTotals[c] += rowWeights[r];
+        total += rowWeights[r];
+      }
+      for(int c = 0; c < numClasses; c++) {
+        DataMiningUtil.sortTogether(classProjections[c], classWeights[c], 0, counts[c]);
+      }
+      int[] next = new int[numClasses];
+      int[] freqsLeft = new int[numClasses];
+      int[] freqsRight = Arrays.copyOf(classTotals, numClasses);
+      int totalLeft = 0;
+      double bestImpurity = Double.POSITIVE_INFINITY;
+      double bestBias = 0;
+      double value = minRemaining(next, counts);
+      while(true) {
+        // Move every record with the current projection to the left side
+        for(int c = 0; c < numClasses; c++) {
+          double[] sorted = classProjections[c];
+          while(next[c] < counts[c] && sorted[next[c]] == value) {
+            int weight = classWeights[c][next[c]++];
+            freqsLeft[c] += weight;
+            freqsRight[c] -= weight;
+            totalLeft += weight;
+          }
+        }
+        double nextValue = minRemaining(next, counts);
+        if(totalLeft == total || Double.isNaN(nextValue)) {
+          break;
+        }
+        double impurity;
+        if(positiveLabels != null) {
+          impurity = SplitStrategy.calcWeightedBinaryGiniImpurity(freqsLeft[1], totalLeft, classTotals[1], total);
+        } else {
+          impurity = SplitStrategy.calcWeightedGiniImpurity(freqsLeft, freqsRight, totalLeft, total);
+        }
+        if(impurity < bestImpurity) {
+          bestImpurity = impurity;
+          bestBias = SplitStrategy.biasBetween(value, nextValue);
+        }
+        value = nextValue;
+      }
+      if(bestImpurity == Double.POSITIVE_INFINITY) {
+        return Double.NaN;
+      }
+      individual.genes[individual.genes.length-1] = bestBias;
+      return bestImpurity;
+    }
+
+    /* Returns the smallest projection not yet moved to the left side given the
+     * index of the next projection and the number of projections of each class */
+    double minRemaining(int[] next, int[] counts) {
+      double min = Double.POSITIVE_INFINITY;
+      for(int c = 0; c < numClasses; c++) {
+        if(next[c] < counts[c]) {
+          min = Math.min(min, classProjections[c][next[c]]);
+        }
+      }
+      return min;
+    }
+    /* Returns the average fitness of a member of the population */
+    private double getAverageFitness(Individual[] population) {
+      double sum = 0;
+      for(Individual member : population) {
+        sum += member.fitness;
+      }
+      return sum/population.length;
+    }
+
+    /* Selects to members of the specified population and replaces them with the
+     * specified children */
+    private void replaceMembers(Individual[] population, Individual[] children) {
+      int worstIndex1 = rand.nextInt(population.length);
+      for(int i = 2; i <= replacementTournamentSize; i++) {
+        int nextIndex = rand.nextInt(population.length);
+        if(population[nextIndex].fitness < population[worstIndex1].fitness) {
+          worstIndex1 = nextIndex;
+        }
+      }
+      int worstIndex2;
+      do {
+        worstIndex2 = rand.nextInt(population.length);
+      } while(worstIndex1 == worstIndex2);
+      for(int i = 2; i <= replacementTournamentSize; i++) {
+        int nextIndex;
+        do {
+          nextIndex = rand.nextInt(population.length);
+        } while(nextIndex == worstIndex1);
+        if(population[nextIndex].fitness < population[worstIndex2].fitness) {
+          worstIndex2 = nextIndex;
+        }
+      }
+      population[worstIndex1] = children[0];
+      population[worstIndex2] = children[1];
+    }
+
+    /* Mutates the childs genes using Gaussian Convolution */
+    private void mutate(Individual child) {
+      double noiseProb = 1.0;
+      double std = 0.1;
+      for(int i = 0; i < child.genes.length; i++) {
+        if(noiseProb >= rand.nextDouble()) {
+          child.genes[i]+=rand.nextGaussian()*std;
+        }
+      }
+    }
+
+    /* Produces child instances from the specified parents using intermediate recombination */
+    private Individual[] intermediateRecombination(Individual parent1, Individual parent2) {
+      double p = 0.25;
+      Individual[] children = new Individual[2];
+      children[0] = new Individual();
+      children[1] = new Individual();
+      for(int i = 0; i < parent1.genes.length; i++) {
+        double a = (2*p+1)*rand.nextDouble()-p;
+        double b = (2*p+1)*rand.nextDouble()-p;
+        double x = a*parent1.genes[i] + (1-a)*parent2.genes[i];
+        double y = b*parent2.genes[i] + (1-b)*parent1.genes[i];
+        children[0].genes[i] = x;
+        children[1].genes[i] = y;
+      }
+      return children;
+    }
+
+    /* Swaps the values at the same index in each parent at random to produce child instances */
+    private Individual[] uniformCrossover(Individual parent1, Individual parent2) {
+      double swapProb = 1/parent1.genes.length;
+      Individual[] children = new Individual[2];
+      children[0] = new Individual();
+      children[1] = new Individual();
+      for(int i = 0; i < parent1.genes.length; i++) {
+        if(swapProb >= rand.nextDouble()) {
+          children[0].genes[i] = parent2.genes[i];
+          children[1].genes[i] = parent1.genes[i];
+        } else {
+          children[0].genes[i] = parent1.genes[i];
+          children[1].genes[i] = parent2.genes[i];
+        }
+      }
+      return children;
+    }
+
+    /* Selects a parent from the population using tournament selection */
+    private Individual selectParent(Individual[] population) {
+      Individual best = population[rand.nextInt(population.length)];
+      for(int i = 2; i <= tournamentSize; i++) {
+        Individual next = population[rand.nextInt(population.length)];
+        if(next.fitness > best.fitness) {
+          best = next;
+        }
+      }
+      return best;
+    }
+
+    /* Initializes the population. */
+    private Individual[] initializePopulation() {
+      Individual[] population = new Individual[populationSize];
+      int lastGene = targetFeatures.length;
       for(int p = 0; p < population.length; p++) {
-        if(rand.nextInt(buckets.size()) != 0) {
-          population[p].genes[i] = 1.0;
+        population[p] = new Individual();
+        population[p].genes[rand.nextInt(targetFeatures.length)] = 1.0;
+      }
+      HashMap<Integer, List<Double>> featureBucketsMap = new HashMap<>();
+      for(SplitCondition condition : topConditions) {
+        featureBucketsMap.putIfAbsent(condition.getFeature(), new ArrayList<>());
+        featureBucketsMap.get(condition.getFeature()).add(condition.getBucket());
+      }
+      for(int i = 0; i < targetFeatures.length; i++) {
+        int selected = rand.nextInt(population.length);
+        population[selected].genes[i] = 1.0;
+        List<Double> buckets = featureBucketsMap.get(targetFeatures[i]);
+        for(int p = 0; p < population.length; p++) {
+          if(rand.nextInt(buckets.size()) != 0) {
+            population[p].genes[i] = 1.0;
+          }
+          if(population[p].genes[i] != 0) {
+            population[p].genes[lastGene]+= buckets.get(rand.nextInt(buckets.size()));
+          }
         }
-        if(population[p].genes[i] != 0) {
-          population[p].genes[lastGene]+= buckets.get(rand.nextInt(buckets.size()));
+      }
+      double[] warmGenes = getWarmStartGenes();
+      if(warmGenes != null) {
+        // Seed part of the population with the parent's hyperplane, all but one
+        // copy perturbed
+        int numSeeded = Math.max(1, (int)(warmStartFraction*population.length));
+        for(int p = 0; p < numSeeded; p++) {
+          population[p] = new Individual();
+          population[p].genes = Arrays.copyOf(warmGenes, warmGenes.length);
+          if(p > 0) {
+            mutate(population[p]);
+          }
         }
       }
+      return population;
+    }
+  }
+
+  /* An island's best individual published for a migration */
+  private class Migrant {
+    final Individual individual;
+    final int migration;
+
+    Migrant(Individual individual, int migration) {
+      this.individual = individual;
+      this.migration = migration;
     }
-    return population;
   }
 
   /* Represents an individual in the population, encode a splits condition for the
@@ -224,10 +733,12 @@ public class GeneticSplitter {
       this.genes = new double[targetFeatures.length+1];
     }
 
-    /* Recalculates the individual's fitness */
-    double updateFitness() {
-      this.fitness = 1 - SplitStrategy.getTotalGiniImpurity(records, this.toSplitCondition(), classIndexMap);
-      return this.fitness;
+    /* Returns a copy of this individual with its own genes */
+    Individual copy() {
+      Individual copy = new Individual();
+      copy.genes = Arrays.copyOf(genes, genes.length);
+      copy.fitness = fitness;
+      return copy;
     }
 
     /* Compares this Individual to the specified oter Individual */
@@ -250,14 +761,9 @@ public class GeneticSplitter {
 
     /* Decodes the genes into a SplitCondition for the records */
     SplitCondition toSplitCondition() {
-      Predicate<Record> pred = (record) -> {
-        double sum = 0;
-        for(int i = 0; i < genes.length-1; i++) {
-          sum += genes[i] * record.getOrDefault(targetFeatures[i]);
-        }
-        return sum - genes[genes.length-1] < 0;
-      };
-      SplitCondition cond = new SplitCondition(pred, toString());
+      double[] weights = Arrays.copyOf(genes, genes.length-1);
+      ConditionNode.Linear node = new ConditionNode.Linear(targetFeatures, weights, genes[genes.length-1]);
+      SplitCondition cond = new SplitCondition(node);
       cond.setImpurity(1-fitness);
       return cond;
     }
@@ -266,7 +772,7 @@ public class GeneticSplitter {
   /* Nested builder class for creating GeneticSplitters */
   public static class GeneticSplitterBuilder {
     private List<Record> records;
-    private HashMap<String, Integer> classIndexMap;
+    private int numClasses;
     private int[] targetFeatures;
     private Random rand;
     private int populationSize;
@@ -275,14 +781,49 @@ public class GeneticSplitter {
     private int replacementTournamentSize;
     private int maxGenerations;
     private List<SplitCondition> topConditions;
+    private boolean optimizeBias;
+    private int racingMinRecords = Integer.MAX_VALUE;
+    private int racingSampleSize;
+    private int numIslands = 1;
+    private int migrationInterval = 10;
+    private ConditionNode.Linear warmStart;
+    private double warmStartFraction;
+    private TrainingBudget.Allocation allocation;
+
+    /* Constructor */
+    public GeneticSplitterBuilder() {
+    }
+
+    /* Copy constructor, returns a builder with the same parameters as the specified
+     * builder that can be changed independently of it */
+    public GeneticSplitterBuilder(GeneticSplitterBuilder other) {
+      this.records = other.records;
+      this.numClasses = other.numClasses;
+      this.targetFeatures = other.targetFeatures;
+      this.rand = other.rand;
+      this.populationSize = other.populationSize;
+      this.maxBuckets = other.maxBuckets;
+      this.tournamentSize = other.tournamentSize;
+      this.replacementTournamentSize = other.replacementTournamentSize;
+      this.maxGenerations = other.maxGenerations;
+      this.topConditions = other.topConditions;
+      this.optimizeBias = other.optimizeBias;
+      this.racingMinRecords = other.racingMinRecords;
+      this.racingSampleSize = other.racingSampleSize;
+      this.numIslands = other.numIslands;
+      this.migrationInterval = other.migrationInterval;
+      this.warmStart = other.warmStart;
+      this.warmStartFraction = other.warmStartFraction;
+      this.allocation = other.allocation;
+    }
 
     public GeneticSplitterBuilder records(List<Record> records) {
       this.records = records;
       return this;
     }
 
-    public GeneticSplitterBuilder classIndexMap(HashMap<String, Integer> classIndexMap) {
-      this.classIndexMap = classIndexMap;
+    public GeneticSplitterBuilder numClasses(int numClasses) {
+      this.numClasses = numClasses;
       return this;
     }
 
@@ -329,6 +870,62 @@ public class GeneticSplitter {
       return this;
     }
 
+    public GeneticSplitterBuilder optimizeBias(boolean optimizeBias) {
+      this.optimizeBias = optimizeBias;
+      return this;
+    }
+
+    public GeneticSplitterBuilder racingMinRecords(int racingMinRecords) {
+      this.racingMinRecords = racingMinRecords;
+      return this;
+    }
+
+    public GeneticSplitterBuilder racingSampleSize(int racingSampleSize) {
+      this.racingSampleSize = racingSampleSize;
+      return this;
+    }
+
+    public GeneticSplitterBuilder numIslands(int numIslands) {
+      this.numIslands = numIslands;
+      return this;
+    }
+
+    public GeneticSplitterBuilder migrationInterval(int migrationInterval) {
+      this.migrationInterval = migrationInterval;
+      return this;
+    }
+
+    /* Returns a hash of the parameters shared by every node's splitter that
+     * determine the condition it finds */
+    public long getOptionsHash() {
+      long hash = populationSize;
+      hash = hash*31 + maxBuckets;
+      hash = hash*31 + tournamentSize;
+      hash = hash*31 + replacementTournamentSize;
+      hash = hash*31 + maxGenerations;
+      hash = hash*31 + (optimizeBias ? 1 : 0);
+      hash = hash*31 + racingMinRecords;
+      hash = hash*31 + racingSampleSize;
+      hash = hash*31 + numIslands;
+      hash = hash*31 + migrationInterval;
+      return hash*31 + Double.hashCode(warmStartFraction);
+    }
+
+    public GeneticSplitterBuilder warmStart(ConditionNode.Linear warmStart) {
+      this.warmStart = warmStart;
+      return this;
+    }
+
+    public GeneticSplitterBuilder warmStartFraction(double warmStartFraction) {
+      this.warmStartFraction = warmStartFraction;
+      return this;
+    }
+
+    public GeneticSplitterBuilder allocation(TrainingBudget.Allocation allocation) {
+      this.allocation = allocation;
+      return this;
+    }
+
     /* Returns a GeneticSplitter instance built from the builder's parameters */
     public GeneticSplitter build() {
       return new GeneticSplitter(this);
@@ -0,0 +1,49 @@
+/* Limits on a decision tree grown best first. Instead of splitting every node
+ * depth first until it is homogeneous, the frontier node whose split most reduces
+ * the weighted Gini impurity of the tree is split next, so growth can be stopped
+ * at any point with the most useful splits already made. Growth stops once the
+ * tree has maxLeaves leaves or maxMillis have passed. Nodes at maxDepth and
+ * splits that reduce the impurity by less than minGain, as a portion of the
+ * weight of the tree's records, are not split, and neither are splits that do
+ * not reduce it at all. A limit of 0 is no limit */
+public class GrowthLimits {
+
+  /* Maximum number of leaves, 0 if unlimited */
+  private final int maxLeaves;
+  /* Maximum depth of a leaf, 0 if unlimited */
+  private final int maxDepth;
+  /* Minimum reduction in weighted Gini impurity for a node to be split, as a
+   * portion of the total weight of the tree's records */
+  private final double minGain;
+  /* Maximum wall-clock time in milliseconds spent growing the tree, 0 if unlimited */
+  private final long maxMillis;
+
+  /* Constructor */
+  public GrowthLimits(int maxLeaves, int maxDepth, double minGain, long maxMillis) {
+    this.maxLeaves = Math.max(0, maxLeaves);
+    this.maxDepth = Math.max(0, maxDepth);
+    this.minGain = Math.max(0, minGain);
+    this.maxMillis = Math.max(0, maxMillis);
+  }
+
+  /* Returns whether a tree with the specified number of leaves may grow another */
+  public boolean allowsLeaves(int numLeaves) {
+    return maxLeaves == 0 || numLeaves < maxLeaves;
+  }
+
+  /* Returns whether a node at the specified depth may be split */
+  public boolean allowsDepth(int depth) {
+    return maxDepth == 0 || depth < maxDepth;
+  }
+
+  /* Returns whether a split with the specified gain may be made */
+  public boolean allowsGain(double gain) {
+    return gain > 0 && gain >= minGain;
+  }
+
+  /* Returns the time, as given by System.nanoTime, at which growth that starts at
+   * the specified time must stop, or Long.MAX_VALUE if there is no time limit */
+  public long getDeadline(long startNanos) {
+    return (maxMillis == 0) ? Long.MAX_VALUE : startNanos + maxMillis*1000000L;
+  }
+}
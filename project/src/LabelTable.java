@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/* Interns class labels into dense integer codes. A single table is shared by all of
+ * the records of a dataset and by the classifiers trained on them, so that class
+ * labels are only compared as integers. Codes are assigned in the order in which
+ * labels are first seen. */
+public class LabelTable {
+
+  /* Maps each class label to its code */
+  private final HashMap<String, Integer> codes;
+  /* Stores each class label at the index of its code */
+  private final ArrayList<String> labels;
+
+  /* Constructor */
+  public LabelTable() {
+    this.codes = new HashMap<>();
+    this.labels = new ArrayList<>();
+  }
+
+  /* Returns the code of the specified label, assigning it the next unused code if
+   * it has not been seen before */
+  public synchronized int intern(String label) {
+    Integer code = codes.get(label);
+    if(code == null) {
+      code = labels.size();
+      codes.put(label, code);
+      labels.add(label);
+    }
+    return code;
+  }
+
+  /* Returns the code of the specified label or Record.NO_CLASS if the label has
+   * not been interned */
+  public synchronized int getCode(String label) {
+    return codes.getOrDefault(label, Record.NO_CLASS);
+  }
+
+  /* Returns the label with the specified code or null if the code is Record.NO_CLASS */
+  public synchronized String getLabel(int code) {
+    return (code == Record.NO_CLASS) ? null : labels.get(code);
+  }
+
+  /* Returns the number of labels interned */
+  public synchronized int size() {
+    return labels.size();
+  }
+}
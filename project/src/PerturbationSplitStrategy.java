@@ -0,0 +1,382 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/* Splits decision trees on hyperplanes found by OC1's randomized perturbation
+ * algorithm. Starting from the best axis-parallel split, one coefficient of the
+ * hyperplane at a time is moved to the value that gives the purest split. When no
+ * coefficient can be improved the hyperplane jumps along random directions, and the
+ * whole search is restarted from random hyperplanes. Only the features of the best
+ * axis-parallel conditions are considered, as in GeneticSplitStrategy. Nodes may be
+ * split concurrently, each with a random number generator seeded from its position
+ * in the tree */
+public class PerturbationSplitStrategy extends SplitStrategy {
+
+  /* Number of moves that leave the impurity unchanged allowed in a row, used to
+   * escape plateaus without cycling */
+  private static final int MAX_STAGNANT_PERTURBATIONS = 10;
+  /* Maximum number of passes over the coefficients per restart */
+  private static final int MAX_CYCLES = 100;
+
+  /* Maximum number of conditions whose features are perturbed */
+  private final int maxGeneConditions;
+  /* Minimum number of conditions whose features are perturbed */
+  private final int minGeneConditions;
+  /* Percentage of total records added to the minimum number of conditions */
+  private final double geneConditionsPercent;
+  /* Number of times the search starts from a random hyperplane after the first
+   * search from the best axis-parallel split */
+  private final int numRestarts;
+  /* Number of random directions tried when no coefficient can be improved */
+  private final int numRandomJumps;
+  /* Seed from which the random number generator of each node is derived */
+  private final long seed;
+  /* Computes the projections of the records onto hyperplanes */
+  private final ProjectionKernel kernel;
+
+  /* Default Constructor */
+  public PerturbationSplitStrategy(DecisionTreeBuilder builder) {
+    super(builder);
+    this.maxGeneConditions = builder.maxGeneConditions;
+    this.minGeneConditions = builder.minGeneConditions;
+    this.geneConditionsPercent = builder.geneConditionsPercent;
+    this.numRestarts = builder.numRestarts;
+    this.numRandomJumps = builder.numRandomJumps;
+    this.seed = builder.rand.nextLong();
+    this.kernel = ProjectionKernel.getInstance();
+  }
+
+  /* Returns the purest of the best axis-parallel split and the hyperplane found by
+   * perturbing it. Nodes reached by fewer than two records per feature are split
+   * axis-parallel, as in OC1 */
+  @Override
+  public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree, SplitContext context) {
+    double classFactor = 1.0/Record.getAllClasses(records).size();
+    int numCond = (int)Math.min(classFactor*records.size()*geneConditionsPercent + minGeneConditions, maxGeneConditions);
+    List<SplitCondition> conditions = getBaseConditions(records, numCond, context).toSplitConditions(numCond);
+    if(conditions.isEmpty()) {
+      return null;
+    }
+    SplitCondition axisParallel = conditions.get(0);
+    TreeSet<Integer> featureSet = new TreeSet<>();
+    for(SplitCondition condition : conditions) {
+      featureSet.add(condition.getFeature());
+    }
+    if(featureSet.size() < 2 || records.size() < 2*featureSet.size() || axisParallel.getImpurity() == 0) {
+      return axisParallel;
+    }
+    int[] features = new int[featureSet.size()];
+    for(int j = 0; j < features.length; j++) {
+      features[j] = featureSet.pollFirst();
+    }
+    Search search = new Search(records, tree.getNumClasses(), features, new Random(context.deriveSeed(seed)));
+    SplitCondition oblique = search.run(axisParallel);
+    return (oblique != null && oblique.getImpurity() < axisParallel.getImpurity()) ? oblique : axisParallel;
+  }
+
+  /* State of the search for a single node's hyperplane. The hyperplane tests
+   * whether the sum of weights[j]*columns[j][r] minus the bias is negative, and
+   * values[r] holds that difference for each row r */
+  private class Search {
+    /* Projected features of the records, column-major */
+    private final double[][] columns;
+    /* Class code of each row */
+    private final int[] classCodes;
+    /* Weight of each row */
+    private final int[] rowWeights;
+    /* Total weight of the rows of each class */
+    private final int[] classFreqs;
+    /* Features the columns were taken from */
+    private final int[] features;
+    /* Standard deviation of each column, 0 for constant columns */
+    private final double[] scales;
+    /* Mean of each column */
+    private final double[] means;
+    private final Random rand;
+    private final int numRows;
+    /* Total weight of the rows */
+    private final int totalWeight;
+    private final int numClasses;
+    /* Weights and bias of the current hyperplane */
+    private final double[] weights;
+    private double bias;
+    /* Current hyperplane's projection of each row minus its bias */
+    private final double[] values;
+    /* Impurity of the current hyperplane's split */
+    private double impurity;
+    /* Number of moves in a row that left the impurity unchanged */
+    private int numStagnant;
+    /* Change in the value of each row per unit change of the bias */
+    private final double[] biasColumn;
+    /* Scratch space for a random direction and its projections */
+    private final double[] direction;
+    private final double[] directionValues;
+    /* Scratch space for the critical points of a sweep, grouped by class and by
+     * whether rows cross to the left or to the right side, along with the weights
+     * of those rows */
+    private final double[][] crossRight;
+    private final double[][] crossLeft;
+    private final int[][] crossRightWeights;
+    private final int[][] crossLeftWeights;
+
+    /* Constructor */
+    Search(List<Record> records, int numClasses, int[] features, Random rand) {
+      this.numRows = records.size();
+      this.numClasses = numClasses;
+      this.features = features;
+      this.rand = rand;
+      this.columns = ProjectionKernel.toColumns(records, features);
+      this.classCodes = new int[numRows];
+      this.rowWeights = new int[numRows];
+      this.classFreqs = new int[numClasses];
+      int r = 0;
+      for(Record record : records) {
+        classCodes[r] = record.getClassCode();
+        rowWeights[r] = record.getWeight();
+        classFreqs[classCodes[r]] += rowWeights[r];
+        r++;
+      }
+      this.totalWeight = DecisionTree.sumArray(classFreqs);
+      this.means = new double[features.length];
+      this.scales = new double[features.length];
+      for(int j = 0; j < features.length; j++) {
+        double[] column = columns[j];
+        double sum = 0;
+        for(r = 0; r < numRows; r++) {
+          sum += rowWeights[r]*column[r];
+        }
+        means[j] = sum/totalWeight;
+        double squares = 0;
+        for(r = 0; r < numRows; r++) {
+          squares += rowWeights[r]*(column[r]-means[j])*(column[r]-means[j]);
+        }
+        scales[j] = Math.sqrt(squares/totalWeight);
+      }
+      this.weights = new double[features.length];
+      this.values = new double[numRows];
+      this.biasColumn = new double[numRows];
+      Arrays.fill(biasColumn, -1.0);
+      this.direction = new double[features.length];
+      this.directionValues = new double[numRows];
+      int[] classRows = new int[numClasses];
+      for(int classCode : classCodes) {
+        classRows[classCode]++;
+      }
+      this.crossRight = new double[numClasses][];
+      this.crossLeft = new double[numClasses][];
+      this.crossRightWeights = new int[numClasses][];
+      this.crossLeftWeights = new int[numClasses][];
+      for(int c = 0; c < numClasses; c++) {
+        crossRight[c] = new double[classRows[c]];
+        crossLeft[c] = new double[classRows[c]];
+        crossRightWeights[c] = new int[classRows[c]];
+        crossLeftWeights[c] = new int[classRows[c]];
+      }
+    }
+
+    /* Returns the purest hyperplane found over all of the restarts, the first of
+     * which starts from the specified axis-parallel condition */
+    SplitCondition run(SplitCondition axisParallel) {
+      double[] bestWeights = null;
+      double bestBias = 0;
+      double bestImpurity = Double.POSITIVE_INFINITY;
+      for(int restart = 0; restart <= numRestarts && bestImpurity > 0; restart++) {
+        if(restart == 0) {
+          int j = Arrays.binarySearch(features, axisParallel.getFeature());
+          weights[j] = 1.0;
+          bias = ((ConditionNode.Threshold)axisParallel.getCondition()).getThreshold();
+        } else {
+          setRandomHyperplane();
+        }
+        climb();
+        // Recompute the values exactly since the moves updated them incrementally
+        updateValues();
+        if(impurity < bestImpurity) {
+          bestImpurity = impurity;
+          bestWeights = Arrays.copyOf(weights, weights.length);
+          bestBias = bias;
+        }
+      }
+      if(bestWeights == null) {
+        return null;
+      }
+      SplitCondition condition = new SplitCondition(new ConditionNode.Linear(features, bestWeights, bestBias));
+      condition.setImpurity(bestImpurity);
+      return condition;
+    }
+
+    /* Sets the current hyperplane to one with random weights, scaled by the
+     * spread of each feature, that passes through the mean of the rows */
+    private void setRandomHyperplane() {
+      bias = 0;
+      for(int j = 0; j < weights.length; j++) {
+        weights[j] = (scales[j] == 0) ? 0 : (2*rand.nextDouble()-1)/scales[j];
+        bias += weights[j]*means[j];
+      }
+    }
+
+    /* Perturbs the coefficients of the current hyperplane in turn, the bias last,
+     * until a whole pass makes no move. A pass with no move is followed by up to
+     * numRandomJumps jumps along random directions, and the search continues if one
+     * of them lowers the impurity */
+    private void climb() {
+      updateValues();
+      numStagnant = 0;
+      boolean moved = true;
+      for(int cycle = 0; cycle < MAX_CYCLES && moved && impurity > 0; cycle++) {
+        moved = false;
+        for(int j = 0; j <= weights.length && impurity > 0; j++) {
+          double[] column = (j < weights.length) ? columns[j] : biasColumn;
+          if(j < weights.length && scales[j] == 0) {
+            continue;
+          }
+          double[] move = sweep(column);
+          if(move == null) {
+            continue;
+          }
+          boolean better = move[1] < impurity;
+          if(better || (move[1] == impurity && move[0] != 0 && numStagnant < MAX_STAGNANT_PERTURBATIONS)) {
+            numStagnant = better ? 0 : numStagnant+1;
+            if(j < weights.length) {
+              weights[j] += move[0];
+            } else {
+              bias += move[0];
+            }
+            shiftValues(column, move[0], move[1]);
+            moved = true;
+          }
+        }
+        for(int jump = 0; !moved && jump < numRandomJumps && impurity > 0; jump++) {
+          moved = jump();
+        }
+      }
+    }
+
+    /* Moves the current hyperplane along a random direction by the amount that gives
+     * the purest split. Returns whether the impurity was lowered, otherwise the
+     * hyperplane is left unchanged */
+    private boolean jump() {
+      for(int j = 0; j < direction.length; j++) {
+        direction[j] = (scales[j] == 0) ? 0 : (2*rand.nextDouble()-1)/scales[j];
+      }
+      double directionBias = 2*rand.nextDouble()-1;
+      kernel.project(columns, direction, numRows, directionValues);
+      for(int r = 0; r < numRows; r++) {
+        directionValues[r] -= directionBias;
+      }
+      double[] move = sweep(directionValues);
+      if(move == null || move[1] >= impurity) {
+        return false;
+      }
+      for(int j = 0; j < weights.length; j++) {
+        weights[j] += move[0]*direction[j];
+      }
+      bias += move[0]*directionBias;
+      numStagnant = 0;
+      shiftValues(directionValues, move[0], move[1]);
+      return true;
+    }
+
+    /* Sets the values and impurity of the current hyperplane from scratch */
+    private void updateValues() {
+      kernel.project(columns, weights, numRows, values);
+      int[] freqsLeft = new int[numClasses];
+      for(int r = 0; r < numRows; r++) {
+        values[r] -= bias;
+        if(values[r] < 0) {
+          freqsLeft[classCodes[r]] += rowWeights[r];
+        }
+      }
+      impurity = SplitStrategy.calcWeightedGiniImpurityFromTotals(freqsLeft, classFreqs, totalWeight);
+    }
+
+    /* Adds the specified multiple of the specified column to the values and sets the
+     * impurity to the specified value, that of the resulting split */
+    private void shiftValues(double[] column, double step, double newImpurity) {
+      for(int r = 0; r < numRows; r++) {
+        values[r] += step*column[r];
+      }
+      impurity = newImpurity;
+    }
+
+    /* Returns the step t, and the impurity it gives, for which adding t times the
+     * specified column to the values gives the purest split, or null if the column
+     * is zero for every row. Row r changes side where t equals -values[r]/column[r],
+     * so every distinct split is tried by sweeping those critical points in
+     * increasing order with running class counts, to which each row's weight is
+     * added or from which it is removed as it crosses. Steps are taken halfway between
+     * consecutive critical points, and ties are broken at random */
+    private double[] sweep(double[] column) {
+      // For t below every critical point, rows with a positive column are on the
+      // left and rows with a negative one on the right
+      int[] freqsLeft = new int[numClasses];
+      int[] numRight = new int[numClasses];
+      int[] numLeft = new int[numClasses];
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for(int r = 0; r < numRows; r++) {
+        int c = classCodes[r];
+        int weight = rowWeights[r];
+        if(column[r] > 0) {
+          freqsLeft[c] += weight;
+          double t = -values[r]/column[r];
+          crossRight[c][numRight[c]] = t;
+          crossRightWeights[c][numRight[c]++] = weight;
+          min = Math.min(min, t);
+          max = Math.max(max, t);
+        } else if(column[r] < 0) {
+          double t = -values[r]/column[r];
+          crossLeft[c][numLeft[c]] = t;
+          crossLeftWeights[c][numLeft[c]++] = weight;
+          min = Math.min(min, t);
+          max = Math.max(max, t);
+        } else if(values[r] < 0) {
+          freqsLeft[c] += weight;
+        }
+      }
+      if(min > max) {
+        return null;
+      }
+      for(int c = 0; c < numClasses; c++) {
+        DataMiningUtil.sortTogether(crossRight[c], crossRightWeights[c], 0, numRight[c]);
+        DataMiningUtil.sortTogether(crossLeft[c], crossLeftWeights[c], 0, numLeft[c]);
+      }
+      double margin = Math.max(max-min, 1e-9);
+      double bestImpurity = SplitStrategy.calcWeightedGiniImpurityFromTotals(freqsLeft, classFreqs, totalWeight);
+      double bestStep = min - margin;
+      int numTies = 1;
+      int[] nextRight = new int[numClasses];
+      int[] nextLeft = new int[numClasses];
+      double value = min;
+      while(value <= max) {
+        double nextValue = Double.POSITIVE_INFINITY;
+        for(int c = 0; c < numClasses; c++) {
+          while(nextRight[c] < numRight[c] && crossRight[c][nextRight[c]] == value) {
+            freqsLeft[c] -= crossRightWeights[c][nextRight[c]++];
+          }
+          while(nextLeft[c] < numLeft[c] && crossLeft[c][nextLeft[c]] == value) {
+            freqsLeft[c] += crossLeftWeights[c][nextLeft[c]++];
+          }
+          if(nextRight[c] < numRight[c]) {
+            nextValue = Math.min(nextValue, crossRight[c][nextRight[c]]);
+          }
+          if(nextLeft[c] < numLeft[c]) {
+            nextValue = Math.min(nextValue, crossLeft[c][nextLeft[c]]);
+          }
+        }
+        double splitImpurity = SplitStrategy.calcWeightedGiniImpurityFromTotals(freqsLeft, classFreqs, totalWeight);
+        double step = (nextValue == Double.POSITIVE_INFINITY) ? max + margin : (value + nextValue)/2;
+        if(splitImpurity < bestImpurity) {
+          bestImpurity = splitImpurity;
+          bestStep = step;
+          numTies = 1;
+        } else if(splitImpurity == bestImpurity && rand.nextInt(++numTies) == 0) {
+          bestStep = step;
+        }
+        value = nextValue;
+      }
+      return new double[]{bestStep, bestImpurity};
+    }
+  }
+}
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.List;
+
+/* Computes the projections of a block of rows onto a hyperplane's weights over a
+ * dense, column-major matrix of the projected features. Terms are added in order
+ * of increasing column with zero weights skipped, so every implementation returns
+ * the same sums as ConditionNode.Linear. The instance returned by getInstance uses
+ * the jdk.incubator.vector module when it is available, which requires compiling
+ * project/src-vector and running with --add-modules jdk.incubator.vector, and falls
+ * back to a scalar loop otherwise. Setting the system property odt.projection to
+ * scalar forces the fallback. */
+public abstract class ProjectionKernel {
+
+  /* Number of rows whose projections are accumulated together, small enough that
+   * the block of projections stays in the L1 cache while every column is added */
+  protected static final int BLOCK_SIZE = 1024;
+  /* Name of the class implementing the kernel with the Vector API */
+  private static final String VECTOR_KERNEL = "VectorProjectionKernel";
+  /* The kernel shared by all callers */
+  private static final ProjectionKernel INSTANCE = createInstance();
+
+  /* Returns the fastest kernel available */
+  public static ProjectionKernel getInstance() {
+    return INSTANCE;
+  }
+
+  /* Returns a short name for the kernel */
+  public abstract String getName();
+
+  /* Stores in projections[r] the sum over the columns j with a non-zero weight
+   * of weights[j]*columns[j][r] for each row r in [from, to). Only the first
+   * columns.length weights are used */
+  protected abstract void projectBlock(double[][] columns, double[] weights, int from, int to, double[] projections);
+
+  /* Stores in projections[r] the projection of each row r in [0, numRows) */
+  public void project(double[][] columns, double[] weights, int numRows, double[] projections) {
+    for(int from = 0; from < numRows; from += BLOCK_SIZE) {
+      projectBlock(columns, weights, from, Math.min(numRows, from+BLOCK_SIZE), projections);
+    }
+  }
+
+  /* Returns the dense, column-major matrix of the specified features of the
+   * specified records */
+  public static double[][] toColumns(List<Record> records, int[] features) {
+    double[][] columns = new double[features.length][records.size()];
+    int r = 0;
+    for(Record record : records) {
+      for(int j = 0; j < features.length; j++) {
+        columns[j][r] = record.getOrDefault(features[j]);
+      }
+      r++;
+    }
+    return columns;
+  }
+
+  /* Returns the Vector API kernel if it was compiled and its module is present,
+   * otherwise the scalar kernel */
+  private static ProjectionKernel createInstance() {
+    if(!"scalar".equals(System.getProperty("odt.projection"))) {
+      try {
+        // Only resolvable when the module was added to the runtime
+        Class.forName("jdk.incubator.vector.DoubleVector");
+        Class<?> vectorKernel = Class.forName(VECTOR_KERNEL);
+        return (ProjectionKernel)vectorKernel.getDeclaredConstructor().newInstance();
+      } catch(ReflectiveOperationException | LinkageError e) {
+        // Module or vector kernel is unavailable, fall back to the scalar kernel
+      }
+    }
+    return new Scalar();
+  }
+
+  /* Kernel that accumulates the projections one column at a time, adding each
+   * weighted column to the projections of the block's rows */
+  public static class Scalar extends ProjectionKernel {
+
+    public String getName() {
+      return "scalar";
+    }
+
+    protected void projectBlock(double[][] columns, double[] weights, int from, int to, double[] projections) {
+      Arrays.fill(projections, from, to, 0.0);
+      for(int j = 0; j < columns.length; j++) {
+        double weight = weights[j];
+        if(weight == 0) {
+          continue;
+        }
+        double[] column = columns[j];
+        for(int r = from; r < to; r++) {
+          projections[r] += weight * column[r];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/* Mergeable KLL quantile sketch over the values of a single attribute. Each item
+ * retained by the sketch remembers the class code of the record it came from
+ * so that the class frequencies below any threshold can be estimated from the
+ * sketch alone. Memory use is bounded by the sketch size regardless of the number
+ * of values added. */
+public class QuantileSketch {
+
+  /* Ratio between the capacities of consecutive levels */
+  private static final double CAPACITY_RATIO = 2.0/3.0;
+  /* Minimum capacity of any level */
+  private static final int MIN_LEVEL_CAPACITY = 2;
+
+  /* Controls the size and therefore the accuracy of the sketch */
+  private final int k;
+  /* Number of different classes values are labelled with */
+  private final int numClasses;
+  /* Used to choose which half of the items are kept during compaction */
+  private final Random rand;
+  /* Compactors, items at level h represent 2^h added values */
+  private final ArrayList<Level> levels;
+  /* Total number of values added to this sketch */
+  private long count;
+  /* Number of items currently held by the sketch */
+  private int retained;
+  /* Number of items that can be held at each level at the sketch's current height */
+  private int[] capacities;
+  /* Number of items the sketch can hold at its current height */
+  private int totalCapacity;
+
+  /* Constructor */
+  public QuantileSketch(int k, int numClasses, Random rand) {
+    this.k = k;
+    this.numClasses = numClasses;
+    this.rand = rand;
+    this.levels = new ArrayList<>();
+    this.count = 0;
+    this.retained = 0;
+    addLevel();
+  }
+
+  /* Returns a sketch of the values of the specified attribute for the specified
+   * records */
+  public static QuantileSketch build(Iterable<Record> records, int attribute, int k, int numClasses) {
+    QuantileSketch sketch = new QuantileSketch(k, numClasses, new Random(attribute));
+    for(Record record : records) {
+      sketch.update(record.getOrDefault(attribute), record.getClassCode(), record.getWeight());
+    }
+    return sketch;
+  }
+
+  /* Accessor for count */
+  public long getCount() {
+    return count;
+  }
+
+  /* Accessor for numClasses */
+  public int getNumClasses() {
+    return numClasses;
+  }
+
+  /* Adds the specified value, which belongs to the class with the specified code,
+   * to the sketch */
+  public void update(double value, int classCode) {
+    levels.get(0).add(value, classCode);
+    count++;
+    retained++;
+    if(retained > totalCapacity) {
+      compress();
+    }
+  }
+
+  /* Adds the specified value the specified number of times. One item is added at
+   * each level h for which bit h of the weight is set, so that the items represent
+   * exactly weight values */
+  public void update(double value, int classCode, int weight) {
+    if(weight == 1) {
+      update(value, classCode);
+      return;
+    }
+    for(int h = 0; weight >>> h != 0; h++) {
+      if((weight & (1 << h)) != 0) {
+        while(levels.size() <= h) {
+          addLevel();
+        }
+        levels.get(h).add(value, classCode);
+        retained++;
+      }
+    }
+    count += weight;
+    compress();
+  }
+
+  /* Adds every item of the specified other sketch into this sketch. The other
+   * sketch is not modified */
+  public void merge(QuantileSketch other) {
+    if(other.numClasses != numClasses) {
+      throw new RuntimeException("Cannot merge sketches over a different number of classes.");
+    }
+    while(levels.size() < other.levels.size()) {
+      addLevel();
+    }
+    for(int h = 0; h < other.levels.size(); h++) {
+      Level otherLevel = other.levels.get(h);
+      for(int i = 0; i < otherLevel.size; i++) {
+        levels.get(h).add(otherLevel.values[i], otherLevel.classes[i]);
+      }
+      retained += otherLevel.size;
+    }
+    count += other.count;
+    compress();
+  }
+
+  /* Adds an empty level on top of the sketch and recomputes the capacities of the
+   * levels, which depend on the sketch's height */
+  private void addLevel() {
+    levels.add(new Level());
+    capacities = new int[levels.size()];
+    totalCapacity = 0;
+    for(int h = 0; h < capacities.length; h++) {
+      int depth = capacities.length - h - 1;
+      capacities[h] = Math.max(MIN_LEVEL_CAPACITY, (int)Math.ceil(k*Math.pow(CAPACITY_RATIO, depth)));
+      totalCapacity += capacities[h];
+    }
+  }
+
+  /* Compacts levels until the total number of retained items is within the
+   * capacity of the sketch */
+  private void compress() {
+    while(retained > totalCapacity) {
+      for(int h = 0; h < levels.size(); h++) {
+        Level level = levels.get(h);
+        if(level.size >= capacities[h]) {
+          if(h+1 == levels.size()) {
+            addLevel();
+          }
+          Level next = levels.get(h+1);
+          int before = level.size + next.size;
+          level.compactInto(next, rand.nextBoolean() ? 1 : 0);
+          retained += level.size + next.size - before;
+          break;
+        }
+      }
+    }
+  }
+
+  /* Returns up to the specified maximum number of candidate splitting thresholds in
+   * ascending order. Thresholds are placed halfway between consecutive distinct
+   * retained values at evenly spaced ranks */
+  public double[] getCandidates(int maxCandidates) {
+    double[] values = new double[retained];
+    int[] heights = new int[retained];
+    int index = 0;
+    for(int h = 0; h < levels.size(); h++) {
+      Level level = levels.get(h);
+      System.arraycopy(level.values, 0, values, index, level.size);
+      Arrays.fill(heights, index, index + level.size, h);
+      index += level.size;
+    }
+    DataMiningUtil.sortTogether(values, heights, 0, retained);
+    double[] distinct = new double[retained];
+    long[] cumulative = new long[retained];
+    int numDistinct = 0;
+    long total = 0;
+    for(int i = 0; i < retained; i++) {
+      total += 1L << heights[i];
+      if(numDistinct == 0 || distinct[numDistinct-1] != values[i]) {
+        distinct[numDistinct++] = values[i];
+      }
+      cumulative[numDistinct-1] = total;
+    }
+    int numBoundaries = numDistinct - 1;
+    if(numBoundaries <= 0) {
+      return new double[0];
+    }
+    if(numBoundaries <= maxCandidates) {
+      double[] candidates = new double[numBoundaries];
+      for(int i = 0; i < numBoundaries; i++) {
+        candidates[i] = 0.5*(distinct[i]+distinct[i+1]);
+      }
+      return candidates;
+    }
+    double[] candidates = new double[maxCandidates];
+    int numCandidates = 0;
+    int j = 0;
+    for(int i = 0; i < maxCandidates; i++) {
+      long rank = (total*(i+1))/(maxCandidates+1);
+      while(j < numBoundaries-1 && cumulative[j] < rank) {
+        j++;
+      }
+      double candidate = 0.5*(distinct[j]+distinct[j+1]);
+      if(numCandidates == 0 || candidates[numCandidates-1] != candidate) {
+        candidates[numCandidates++] = candidate;
+      }
+    }
+    return Arrays.copyOf(candidates, numCandidates);
+  }
+
+  /* Returns the estimated class frequencies of the values less than each of the
+   * specified ascending thresholds */
+  public int[][] estimateFreqLists(double[] thresholds) {
+    int[][] freqLists = new int[thresholds.length][numClasses];
+    for(int h = 0; h < levels.size(); h++) {
+      Level level = levels.get(h);
+      for(int i = 0; i < level.size; i++) {
+        int bin = upperBound(thresholds, level.values[i]);
+        if(bin < thresholds.length) {
+          freqLists[bin][level.classes[i]] += 1 << h;
+        }
+      }
+    }
+    for(int i = 1; i < freqLists.length; i++) {
+      for(int c = 0; c < numClasses; c++) {
+        freqLists[i][c] += freqLists[i-1][c];
+      }
+    }
+    return freqLists;
+  }
+
+  /* Returns the number of values in the specified ascending array that are less
+   * than or equal to the specified value */
+  public static int upperBound(double[] sorted, double value) {
+    int low = 0;
+    int high = sorted.length;
+    while(low < high) {
+      int mid = (low + high) >>> 1;
+      if(sorted[mid] <= value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /* A single compactor of the sketch */
+  private static class Level {
+    double[] values;
+    int[] classes;
+    int size;
+
+    /* Constructor */
+    Level() {
+      this.values = new double[8];
+      this.classes = new int[8];
+      this.size = 0;
+    }
+
+    /* Appends the specified item to this level */
+    void add(double value, int classIndex) {
+      if(size == values.length) {
+        values = Arrays.copyOf(values, size*2);
+        classes = Arrays.copyOf(classes, size*2);
+      }
+      values[size] = value;
+      classes[size++] = classIndex;
+    }
+
+    /* Sorts this level and moves every other item starting at the specified offset
+     * into the specified next level. If this level holds an odd number of items the
+     * largest is kept back */
+    void compactInto(Level next, int offset) {
+      sort();
+      int kept = size%2;
+      int end = size - kept;
+      for(int i = offset; i < end; i+=2) {
+        next.add(values[i], classes[i]);
+      }
+      if(kept == 1) {
+        values[0] = values[size-1];
+        classes[0] = classes[size-1];
+      }
+      size = kept;
+    }
+
+    /* Sorts the items of this level by value, keeping classes aligned */
+    void sort() {
+      DataMiningUtil.sortTogether(values, classes, 0, size);
+    }
+  }
+}
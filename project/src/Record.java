@@ -1,32 +1,121 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.TreeSet;
 
 /* Represents a data instance with a sparsely represention of its features and
- * a class label. Maps feature numbers to values */
+ * a class. The class is stored as a code interned in a LabelTable. Maps feature
+ * numbers to values */
 public class Record extends HashMap<Integer, Double> {
 
   public static final double DEFAULT_FEATURE_VALUE = 0.0;
-  private final String classLabel; // the class of this record, null if no class
+  /* Class code of records without a class */
+  public static final int NO_CLASS = -1;
+  private final int classCode; // the class of this record, NO_CLASS if no class
+  private final LabelTable labelTable; // the table the class code was interned in
+  private final int weight; // number of identical records this record stands for
+  private SortedRow sortedRow; // cached sorted view of the features, null if stale
 
   /* Constructor. Initializes map based on the specified map. */
-  public Record(String classLabel, HashMap<Integer, Double> features) {
+  public Record(int classCode, LabelTable labelTable, HashMap<Integer, Double> features) {
+    this(classCode, labelTable, features, 1);
+  }
+
+  /* Constructor. Initializes map based on the specified map and gives the record
+   * the specified positive weight */
+  public Record(int classCode, LabelTable labelTable, HashMap<Integer, Double> features, int weight) {
     super(features);
-    this.classLabel = classLabel;
+    if(weight < 1) {
+      throw new RuntimeException("Record weight must be at least 1.");
+    }
+    this.classCode = classCode;
+    this.labelTable = labelTable;
+    this.weight = weight;
+  }
+
+  /* Constructor. Initializes as a copy of the specified record with the specified
+   * weight */
+  public Record(Record other, int weight) {
+    this(other.classCode, other.labelTable, other, weight);
+  }
+
+  /* Constructor. Initializes as an empty map with the specified class and weight */
+  private Record(int classCode, LabelTable labelTable, int weight) {
+    super();
+    this.classCode = classCode;
+    this.labelTable = labelTable;
+    this.weight = weight;
   }
 
   /* Constructor. Initializes as an empty map. */
-  public Record(String classLabel) {
+  public Record(int classCode, LabelTable labelTable) {
     super();
-    this.classLabel = classLabel;
+    this.classCode = classCode;
+    this.labelTable = labelTable;
+    this.weight = 1;
+  }
+
+  /* Constructor. Initializes as an empty map without a class. */
+  public Record() {
+    this(NO_CLASS, null);
+  }
+
+  @Override
+  public Double put(Integer key, Double value) {
+    sortedRow = null;
+    return super.put(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends Double> map) {
+    sortedRow = null;
+    super.putAll(map);
+  }
+
+  @Override
+  public Double remove(Object key) {
+    sortedRow = null;
+    return super.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    sortedRow = null;
+    super.clear();
+  }
+
+  /* Returns the record's features and their values in order of increasing feature,
+   * building the view if the record has changed since it was last requested. Must
+   * not be called while the record is being modified */
+  public SortedRow getSortedRow() {
+    SortedRow row = sortedRow;
+    if(row == null) {
+      row = new SortedRow(this);
+      sortedRow = row;
+    }
+    return row;
+  }
+
+  /* Returns a read-only record with this record's class and features but the
+   * specified positive weight. The features are not copied, the returned record
+   * reads them from this one */
+  public Record withWeight(int weight) {
+    if(weight < 1) {
+      throw new RuntimeException("Record weight must be at least 1.");
+    }
+    return (weight == this.weight) ? this : new WeightedView(this, weight);
   }
 
   /* Returns a string represention of the record */
   @Override
   public String toString() {
-    return (classLabel==null ? "?" : classLabel) + ": " + size();
+    return (classCode==NO_CLASS ? "?" : getClassLabel()) + ": " + size();
   }
 
   /* Returns the value mapped to the specified key or the default value if no mapping exists */
@@ -40,7 +129,7 @@ public class Record extends HashMap<Integer, Double> {
     for(int feature : allFeatures) {
       result += getOrDefault(feature) + " ";
     }
-    return result + classLabel;
+    return result + getClassLabel();
   }
 
   /* Converts the record into a sparse string representation of all of its features */
@@ -51,12 +140,70 @@ public class Record extends HashMap<Integer, Double> {
         result += feature + " " + get(feature) + " ";
       }
     }
-    return result + classLabel;
+    return result + getClassLabel();
   }
 
-  /* Accessor for classLabel */
+  /* Returns the class label of this record, null if no class */
   public String getClassLabel() {
-    return classLabel;
+    return (classCode == NO_CLASS) ? null : labelTable.getLabel(classCode);
+  }
+
+  /* Accessor for classCode */
+  public int getClassCode() {
+    return classCode;
+  }
+
+  /* Accessor for labelTable */
+  public LabelTable getLabelTable() {
+    return labelTable;
+  }
+
+  /* Accessor for weight */
+  public int getWeight() {
+    return weight;
+  }
+
+  /* Returns the sum of the weights of the specified records */
+  public static int getTotalWeight(Iterable<Record> records) {
+    int total = 0;
+    for(Record record : records) {
+      total += record.weight;
+    }
+    return total;
+  }
+
+  /* Returns whether every one of the specified records has a weight of one */
+  public static boolean isUnweighted(Iterable<Record> records) {
+    for(Record record : records) {
+      if(record.weight != 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Returns a list in which the records of each class with identical features are
+   * replaced by a single record whose weight is the sum of theirs. Records with no
+   * duplicates are kept as they are and the order of first appearance is kept */
+  public static ArrayList<Record> mergeDuplicates(List<Record> records) {
+    HashMap<Integer, HashMap<Record, Integer>> groups = new HashMap<>();
+    ArrayList<Record> firsts = new ArrayList<>();
+    for(Record record : records) {
+      HashMap<Record, Integer> group = groups.computeIfAbsent(record.classCode, c -> new HashMap<>());
+      Integer total = group.get(record);
+      if(total == null) {
+        firsts.add(record);
+        group.put(record, record.weight);
+      } else {
+        group.put(record, total + record.weight);
+      }
+    }
+    ArrayList<Record> merged = new ArrayList<>(firsts.size());
+    for(Record record : firsts) {
+      int total = groups.get(record.classCode).get(record);
+      merged.add((total == record.weight) ? record : new Record(record, total));
+    }
+    return merged;
   }
 
   /* Standardizes each of the features of each of the specified sets of training and
@@ -97,8 +244,10 @@ public class Record extends HashMap<Integer, Double> {
    * based on the contents of the second specified file. If sparse is true then
    * it is assumed that the records are represented sparsely in the first specified
    * file, otherwise a dense reprsentation is assumed. For the sparse represention
-   * it is assumed that feature numbers come before feature weights */
+   * it is assumed that feature numbers come before feature weights. Labels are
+   * interned into a new LabelTable shared by the returned records */
   public static ArrayList<Record> readRecords(String trainingFile, String trainingLabelFile, boolean sparse) {
+    LabelTable labelTable = new LabelTable();
     ArrayList<String> labels = DataMiningUtil.readLines(trainingLabelFile);
     ArrayList<String> lines = DataMiningUtil.readLines(trainingFile);
     boolean missing = false;
@@ -107,7 +256,7 @@ public class Record extends HashMap<Integer, Double> {
     }
     ArrayList<Record> records = new ArrayList<>(lines.size());
     for(int i = 0; i < lines.size(); i++) {
-      Record record = new Record(labels.get(i));
+      Record record = new Record(labelTable.intern(labels.get(i)), labelTable);
       if(addFeaturesToRecord(record, sparse, lines.get(i))) {
         missing = true;
       }
@@ -128,7 +277,7 @@ public class Record extends HashMap<Integer, Double> {
     ArrayList<Record> records = new ArrayList<>(lines.size());
     boolean missing = false;
     for(int i = 0; i < lines.size(); i++) {
-      Record record = new Record(null);
+      Record record = new Record();
       if(addFeaturesToRecord(record, sparse, lines.get(i))) {
         missing = true;
       }
@@ -145,12 +294,12 @@ public class Record extends HashMap<Integer, Double> {
   private static void fixMissingAttributes(ArrayList<Record> records) {
     HashSet<Integer> allFeats = getAllFeatures(records);
     for(int feature: allFeats) {
-      HashMap<String, ArrayList<Double>> classValuesMap = new HashMap<>();
+      HashMap<Integer, ArrayList<Double>> classValuesMap = new HashMap<>();
       ArrayList<Double> values = new ArrayList<>();
       /* Create lists of all the values for this attribute for each class and overall */
       for(Record record : records) {
         if(record.getOrDefault(feature)!=null) {
-          String label = record.getClassLabel();
+          int label = record.getClassCode();
           classValuesMap.putIfAbsent(label, new ArrayList<Double>());
           classValuesMap.get(label).add(record.getOrDefault(feature));
           values.add(record.getOrDefault(feature));
@@ -158,14 +307,14 @@ public class Record extends HashMap<Integer, Double> {
       }
       /* Calculate the median values */
       double overallMedian = values.size() > 0 ? DataMiningUtil.median(values) : 0;
-      HashMap<String, Double> medians = new HashMap<>();
-      for(String key : classValuesMap.keySet()) {
+      HashMap<Integer, Double> medians = new HashMap<>();
+      for(int key : classValuesMap.keySet()) {
         medians.put(key, DataMiningUtil.median(classValuesMap.get(key)));
       }
       /* Fill in values for missing records missing this attribute */
       for(Record record : records) {
         if(record.getOrDefault(feature)==null) {
-          String label = record.getClassLabel();
+          int label = record.getClassCode();
           if(medians.containsKey(label)) {
             // use the median for this record's class
             record.put(feature, medians.get(label));
@@ -224,12 +373,124 @@ public class Record extends HashMap<Integer, Double> {
     return features;
   }
 
-  /* Returns all the class labels contained in the specified iterable of records */
-  public static HashSet<String> getAllClasses(Iterable<Record> records) {
-    HashSet<String> labels = new HashSet<>();
+  /* Returns all the class codes contained in the specified iterable of records */
+  public static HashSet<Integer> getAllClasses(Iterable<Record> records) {
+    HashSet<Integer> classes = new HashSet<>();
     for(Record record : records) {
-      labels.add(record.getClassLabel());
+      classes.add(record.getClassCode());
+    }
+    return classes;
+  }
+
+  /* Immutable view of a record's features sorted by feature number, used to
+   * evaluate sparse linear conditions with a merge-join */
+  public static class SortedRow {
+    final int[] features;
+    final double[] values;
+
+    /* Constructor */
+    private SortedRow(Record record) {
+      int[] features = new int[record.size()];
+      int i = 0;
+      for(int feature : record.keySet()) {
+        features[i++] = feature;
+      }
+      Arrays.sort(features);
+      double[] values = new double[features.length];
+      for(i = 0; i < features.length; i++) {
+        values[i] = record.get(features[i]);
+      }
+      this.features = features;
+      this.values = values;
+    }
+  }
+
+  /* Record that reads its features from another record and only differs from it in
+   * weight. It holds none of the features itself and cannot be modified */
+  private static class WeightedView extends Record {
+    private static final long serialVersionUID = 1L;
+
+    private final Record base;
+
+    /* Constructor */
+    private WeightedView(Record base, int weight) {
+      super(base.classCode, base.labelTable, weight);
+      this.base = (base instanceof WeightedView) ? ((WeightedView)base).base : base;
+    }
+
+    @Override
+    public Double get(Object key) {
+      return base.get(key);
+    }
+
+    @Override
+    public Double getOrDefault(Object key, Double defaultValue) {
+      return base.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return base.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+      return base.containsValue(value);
+    }
+
+    @Override
+    public int size() {
+      return base.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return base.isEmpty();
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+      return base.keySet();
+    }
+
+    @Override
+    public Collection<Double> values() {
+      return base.values();
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Double>> entrySet() {
+      return base.entrySet();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super Double> action) {
+      base.forEach(action);
+    }
+
+    @Override
+    public SortedRow getSortedRow() {
+      return base.getSortedRow();
+    }
+
+    @Override
+    public Double put(Integer key, Double value) {
+      throw new RuntimeException("A weighted view of a record cannot be modified.");
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends Double> map) {
+      throw new RuntimeException("A weighted view of a record cannot be modified.");
+    }
+
+    @Override
+    public Double remove(Object key) {
+      throw new RuntimeException("A weighted view of a record cannot be modified.");
+    }
+
+    @Override
+    public void clear() {
+      throw new RuntimeException("A weighted view of a record cannot be modified.");
     }
-    return labels;
   }
 }
@@ -1,12 +1,14 @@
-import java.util.function.Predicate;
+import java.io.Serializable;
+import java.util.List;
 
 /* Represents a condition to split the instances at a node of a decision tree at */
-public class SplitCondition implements Comparable<SplitCondition> {
+public class SplitCondition implements Comparable<SplitCondition>, Serializable {
 
-  /* A split representation of the decision boundary of this condition */
-  private final String desc;
-  /* Predicate representation of the decision boundary */
-  private final Predicate<Record> condition;
+  /* Version of the serialized form, changed whenever the fields change */
+  private static final long serialVersionUID = 1L;
+
+  /* Typed representation of the decision boundary */
+  private final ConditionNode condition;
   /* The Gini impurity of the split produced by this condition if it has been
    * calculated, otherwise -1 */
   private double impurity;
@@ -18,21 +20,25 @@ public class SplitCondition implements Comparable<SplitCondition> {
   private double bucket;
 
   /* Constructor */
-  public SplitCondition(Predicate<Record> condition, String desc) {
+  public SplitCondition(ConditionNode condition) {
     this.condition = condition;
-    this.desc = desc;
-    this.rank = 1;
+    this.rank = condition.getRank();
     this.impurity = -1;
+    if(condition instanceof ConditionNode.Threshold) {
+      this.feature = ((ConditionNode.Threshold)condition).getFeature();
+      this.bucket = ((ConditionNode.Threshold)condition).getThreshold();
+    }
   }
 
-  /* Constructor */
-  public SplitCondition(Predicate<Record> condition, int feature, double bucket) {
-    this.condition = condition;
-    this.desc = String.format("x[%d] < %2.2f", feature, bucket);
-    this.feature = feature;
-    this.bucket = bucket;
-    this.rank = 1;
-    this.impurity = -1;
+  /* Constructor for a condition that tests whether the specified feature is less
+   * than the specified bucket */
+  public SplitCondition(int feature, double bucket) {
+    this(new ConditionNode.Threshold(feature, bucket));
+  }
+
+  /* Accessor for condition */
+  public ConditionNode getCondition() {
+    return condition;
   }
 
   /* Accessor for feature */
@@ -47,9 +53,12 @@ public class SplitCondition implements Comparable<SplitCondition> {
 
   /* Returns a copy of this SplitCondition without its impurity set */
   public SplitCondition copy() {
-    SplitCondition copy = new SplitCondition(this.condition, this.desc);
-    copy.rank = this.rank;
-    return copy;
+    return new SplitCondition(condition);
+  }
+
+  /* Accessor for rank */
+  public int getRank() {
+    return rank;
   }
 
   /* Setter for impurity */
@@ -77,33 +86,36 @@ public class SplitCondition implements Comparable<SplitCondition> {
     return condition.test(record);
   }
 
+  /* Stores in the specified array whether each of the specified list's records
+   * with an index in [from, to) passes the condition, at its index minus from */
+  public void test(List<Record> records, int from, int to, boolean[] results) {
+    condition.evaluate(records, from, to, results);
+  }
+
+  /* Returns a bitset with the bit for each of the specified records set if it
+   * passes the condition */
+  public long[] testAll(List<Record> records) {
+    return condition.evaluate(records);
+  }
+
   /* Returns a string representation of the split condition */
   @Override
   public String toString() {
-    return String.format("%s", desc);
+    return condition.toString();
   }
 
   /* Returns a condition that is the logical negation of this condition */
   public SplitCondition negate() {
-    String newDesc = String.format("!(%s)", desc);
-    SplitCondition split = new SplitCondition(condition.negate(), newDesc);
-    split.rank = this.rank;
-    return split;
+    return new SplitCondition(condition.negate());
   }
 
   /* Returns a condition that is the logical OR of this condition and the specified other condition */
   public SplitCondition or(SplitCondition other) {
-    String newDesc = String.format("(%s)||(%s)", desc, other.desc);
-    SplitCondition split = new SplitCondition(condition.or(other.condition), newDesc);
-    split.rank = this.rank + other.rank;
-    return split;
+    return new SplitCondition(new ConditionNode.Binary(false, condition, other.condition));
   }
 
   /* Returns a condition that is the logical AND of this condition and the specified other condition */
   public SplitCondition and(SplitCondition other) {
-    String newDesc = String.format("(%s)&&(%s)", desc, other.desc);
-    SplitCondition split = new SplitCondition(condition.and(other.condition), newDesc);
-    split.rank = this.rank + other.rank;
-    return split;
+    return new SplitCondition(new ConditionNode.Binary(true, condition, other.condition));
   }
 }
@@ -0,0 +1,93 @@
+/* Describes where in a decision tree the node being split is. Passed to split
+ * strategies so that they can use what was learned at the node's ancestors */
+public class SplitContext {
+
+  /* Context of the node's parent, null for the root */
+  private final SplitContext parent;
+  /* Condition the parent was split on, null for the root */
+  private final SplitCondition parentCondition;
+  /* Whether the node holds the records that passed the parent's condition */
+  private final boolean trueBranch;
+  /* Number of edges between the root and the node */
+  private final int depth;
+  /* Hash of the branches taken from the root to reach the node */
+  private final long path;
+  /* Features that are not constant over the node's records in increasing order,
+   * null until a split search at the node has found them */
+  private int[] activeFeatures;
+
+  /* Private constructor */
+  private SplitContext(SplitContext parent, SplitCondition parentCondition, boolean trueBranch, int depth, long path) {
+    this.parent = parent;
+    this.parentCondition = parentCondition;
+    this.trueBranch = trueBranch;
+    this.depth = depth;
+    this.path = path;
+  }
+
+  /* Returns the context of the root of a tree */
+  public static SplitContext root() {
+    return new SplitContext(null, null, false, 0, 1);
+  }
+
+  /* Returns the context of a node restored from a checkpoint with the specified
+   * position in the tree. The contexts of its ancestors are not kept */
+  public static SplitContext restore(SplitCondition parentCondition, boolean trueBranch, int depth, long path) {
+    return new SplitContext(null, parentCondition, trueBranch, depth, path);
+  }
+
+  /* Returns the context of the child of this node that holds the records for which
+   * the specified condition this node was split on has the specified result */
+  public SplitContext child(SplitCondition condition, boolean trueBranch) {
+    return new SplitContext(this, condition, trueBranch, depth+1, mix(2*path + (trueBranch ? 1 : 0)));
+  }
+
+  /* Returns a seed for the node's random number generator derived from the
+   * specified seed for the whole tree. Depends only on the node's position, so
+   * nodes get the same random stream whatever order they are split in */
+  public long deriveSeed(long seed) {
+    return mix(seed ^ mix(path));
+  }
+
+  /* SplitMix64 finalizer, scrambles the bits of the specified value */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /* Accessor for parent */
+  public SplitContext getParent() {
+    return parent;
+  }
+
+  /* Accessor for parentCondition */
+  public SplitCondition getParentCondition() {
+    return parentCondition;
+  }
+
+  /* Accessor for trueBranch */
+  public boolean isTrueBranch() {
+    return trueBranch;
+  }
+
+  /* Accessor for depth */
+  public int getDepth() {
+    return depth;
+  }
+
+  /* Accessor for path */
+  public long getPath() {
+    return path;
+  }
+
+  /* Accessor for activeFeatures */
+  public int[] getActiveFeatures() {
+    return activeFeatures;
+  }
+
+  /* Setter for activeFeatures */
+  public void setActiveFeatures(int[] activeFeatures) {
+    this.activeFeatures = activeFeatures;
+  }
+}
@@ -1,59 +1,141 @@
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.function.Predicate;
+import java.util.Collections;
+import java.util.Random;
 import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.util.TreeSet;
 
 /* Represents some method for splitting a decision tree */
 public class SplitStrategy {
 
   /* Number of threads used in the thread pool */
-  private final int numThreads;
+  protected final int numThreads;
   /* Maximum number of buckets considered for splitting per attribute */
   private final int maxBuckets;
-  /* Stores that class label at the index it is associated with */
-  private HashMap<String, Integer> classIndexMap;
+  /* Minimum number of records reaching a node for candidates to be selected from
+   * quantile sketches */
+  private final int sketchMinRecords;
+  /* Size of the quantile sketches used to select candidates */
+  private final int sketchSize;
+  /* Number of different class codes records can have */
+  private int numClasses;
+  /* Portion of the features reaching a node considered for splitting it */
+  private final double featureFraction;
+  /* Seed from which the feature subset of each node is derived */
+  private final long featureSeed;
+  /* Bundles of the sparse features of the tree's training records, null if
+   * features are not bundled */
+  private FeatureBundles featureBundles;
+  /* Scores the axis-parallel candidates on worker processes, null if they are
+   * scored in this process */
+  private FeatureCoordinator featureCoordinator;
 
   /* Default Constructor */
   public SplitStrategy(DecisionTreeBuilder builder) {
     this.numThreads = builder.numThreads;
     this.maxBuckets = builder.maxBuckets;
+    this.sketchMinRecords = builder.sketchMinRecords;
+    this.sketchSize = builder.sketchSize;
+    this.featureFraction = builder.featureFraction;
+    // Only drawn when sampling so that the builder's random stream is otherwise untouched
+    this.featureSeed = (featureFraction < 1) ? builder.rand.nextLong() : 0;
   }
 
-  /* Setter for classIndexMap */
-  public void setClassIndexMap(HashMap<String, Integer> classIndexMap) {
-    this.classIndexMap = classIndexMap;
+  /* Setter for numClasses */
+  public void setNumClasses(int numClasses) {
+    this.numClasses = numClasses;
+  }
+
+  /* Setter for featureBundles */
+  public void setFeatureBundles(FeatureBundles featureBundles) {
+    this.featureBundles = featureBundles;
+  }
+
+  /* Setter for featureCoordinator */
+  public void setFeatureCoordinator(FeatureCoordinator featureCoordinator) {
+    this.featureCoordinator = featureCoordinator;
+  }
+
+  /* Returns the progress of the budget limiting the search for splits of the
+   * specified tree, or null if the search is not budgeted */
+  public TrainingBudget.Progress getBudgetProgress(DecisionTree tree) {
+    return null;
+  }
+
+  /* Continues the search for splits of the specified tree from the specified
+   * progress of its budget, saved in a checkpoint of the tree. Does nothing if the
+   * progress is null */
+  public void restoreBudgetProgress(DecisionTree tree, TrainingBudget.Progress progress) {
   }
 
   /* Returns the split condition that produces the purest partition of the reaching
-   * records */
+   * records, treating them as reaching the root */
   public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree) {
-    List<SplitCondition> baseConditions = getBaseConditions(records);
-    List<SplitCondition> mostPureConditions = mostPureConditions(1, baseConditions, records, tree);
+    return selectSplitCondition(records, tree, SplitContext.root());
+  }
+
+  /* Returns the split condition that produces the purest partition of the reaching
+   * records of the node described by the specified context */
+  public SplitCondition selectSplitCondition(List<Record> records, DecisionTree tree, SplitContext context) {
+    List<SplitCondition> mostPureConditions = getBaseConditions(records, 1, context).toSplitConditions(1);
     if(records.equals(tree.getTrainingRecords())) {
-      return mostPureConditions.get(0);
+      return mostPureConditions.isEmpty() ? null : mostPureConditions.get(0);
     } else {
       return resolveTiedConditions(mostPureConditions, tree);
     }
   }
 
-  /* Gets the basic set of conditions which split the feature space along the
-   * feature axes */
-  protected List<SplitCondition> getBaseConditions(List<Record> records) {
-    List<Integer> features = new ArrayList<Integer>(Record.getAllFeatures(records));
+  /* Scores the basic set of conditions which split the feature space along the
+   * feature axes of the node described by the specified context. Returns a heap of
+   * the specified number of conditions with the lowest impurity. When features are
+   * bundled, each bundle is scored in one pass and the remaining features one at a
+   * time. With feature workers, each worker scores its own features */
+  protected CandidateHeap getBaseConditions(List<Record> records, int numConditions, SplitContext context) {
+    if(featureCoordinator != null) {
+      return featureCoordinator.getBaseConditions(records, numConditions);
+    }
+    List<Integer> features = sampleFeatures(getActiveFeatures(records, context), context);
+    int[] classFreqs = DecisionTree.getClassFreqs(records, numClasses);
+    HashSet<Integer> bundledFeatures = new HashSet<>();
+    FeatureBundles.NodeRows nodeRows = null;
+    int numBundles = 0;
+    if(featureBundles != null) {
+      List<Integer> unbundled = new ArrayList<>();
+      for(int feature : features) {
+        if(featureBundles.isBundled(feature)) {
+          bundledFeatures.add(feature);
+        } else {
+          unbundled.add(feature);
+        }
+      }
+      if(!bundledFeatures.isEmpty()) {
+        features = unbundled;
+        nodeRows = featureBundles.getNodeRows(records);
+        numBundles = featureBundles.getNumBundles();
+      }
+    }
+    final List<Integer> axes = features;
+    final FeatureBundles.NodeRows rows = nodeRows;
+    final int numItems = axes.size() + numBundles;
     ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
-    ArrayList<List<SplitCondition>> conditionsList = new ArrayList<>();
-    int i = 0;
-    for(int feature : features) {
-      ArrayList<SplitCondition> next = new ArrayList<>();
-      conditionsList.add(next);
+    ArrayList<CandidateHeap> heaps = new ArrayList<>();
+    for(int t = 0; t < Math.min(numThreads, numItems); t++) {
+      final int offset = t;
+      CandidateHeap heap = new CandidateHeap(numConditions);
+      heaps.add(heap);
       Callable<Boolean> task = () -> {
         try {
-          addFeatureBaseConditions(records, feature, next);
+          for(int i = offset; i < numItems; i+=numThreads) {
+            if(i < axes.size()) {
+              addFeatureBaseConditions(records, classFreqs, axes.get(i), heap);
+            } else {
+              featureBundles.addBundleConditions(i - axes.size(), rows, classFreqs, bundledFeatures, heap);
+            }
+          }
           return true;
         } catch(Exception e) {
           e.printStackTrace();
@@ -63,31 +145,103 @@ public class SplitStrategy {
       tasks.add(task);
     }
     runTasks(tasks);
-    List<SplitCondition> conditions = new ArrayList<>();
-    for(List<SplitCondition> list : conditionsList) {
-      conditions.addAll(list);
+    CandidateHeap conditions = new CandidateHeap(numConditions);
+    for(CandidateHeap heap : heaps) {
+      conditions.merge(heap);
     }
     return conditions;
   }
 
-  /* Gets the basic set of conditions which split the feature space along the
-   * the specified feature axis */
-  private void addFeatureBaseConditions(List<Record> records, int feature, List<SplitCondition> conditions) {
-    int[] classFreqs = DecisionTree.getClassFreqs(records, classIndexMap);
-    AttributeSpace attrSpace = new AttributeSpace(records, feature, maxBuckets, classIndexMap);
+  /* Returns the features that are not constant over the specified records, in
+   * increasing order, and records them in the specified context for the node's
+   * children. A feature that is constant over a node's records is constant over
+   * any subset of them, so only the features active at the node's parent are
+   * examined, in one pass over the records' non-zero values */
+  private static int[] getActiveFeatures(List<Record> records, SplitContext context) {
+    int[] candidates = (context.getParent() == null) ? null : context.getParent().getActiveFeatures();
+    if(candidates == null) {
+      TreeSet<Integer> allFeatures = new TreeSet<>(Record.getAllFeatures(records));
+      candidates = new int[allFeatures.size()];
+      int j = 0;
+      for(int feature : allFeatures) {
+        candidates[j++] = feature;
+      }
+    }
+    int[] numNonZero = new int[candidates.length];
+    double[] mins = new double[candidates.length];
+    double[] maxes = new double[candidates.length];
+    for(Record record : records) {
+      Record.SortedRow row = record.getSortedRow();
+      // Both arrays are sorted, so each search can start after the last match
+      int from = 0;
+      for(int i = 0; i < row.features.length && from < candidates.length; i++) {
+        double value = row.values[i];
+        int j = Arrays.binarySearch(candidates, from, candidates.length, row.features[i]);
+        if(j < 0) {
+          from = -j-1;
+          continue;
+        }
+        from = j+1;
+        if(value == 0) {
+          continue;
+        }
+        if(numNonZero[j]++ == 0) {
+          mins[j] = value;
+          maxes[j] = value;
+        } else {
+          mins[j] = Math.min(mins[j], value);
+          maxes[j] = Math.max(maxes[j], value);
+        }
+      }
+    }
+    int numActive = 0;
+    int[] active = new int[candidates.length];
+    for(int j = 0; j < candidates.length; j++) {
+      if(numNonZero[j] > 0 && (numNonZero[j] < records.size() || mins[j] != maxes[j])) {
+        active[numActive++] = candidates[j];
+      }
+    }
+    active = Arrays.copyOf(active, numActive);
+    context.setActiveFeatures(active);
+    return active;
+  }
+
+  /* Returns the specified active features of the node described by the specified
+   * context that are considered for splitting it. If featureFraction is less than
+   * 1, that portion of them, rounded up, is chosen at random with a seed derived
+   * from the node's position, as in a random forest */
+  private List<Integer> sampleFeatures(int[] activeFeatures, SplitContext context) {
+    List<Integer> features = new ArrayList<Integer>(activeFeatures.length);
+    for(int feature : activeFeatures) {
+      features.add(feature);
+    }
+    if(featureFraction >= 1) {
+      return features;
+    }
+    Collections.shuffle(features, new Random(context.deriveSeed(featureSeed)));
+    int numSampled = (int)Math.ceil(featureFraction*features.size());
+    return new ArrayList<Integer>(features.subList(0, numSampled));
+  }
+
+  /* Scores the basic set of conditions which split the feature space along the
+   * the specified feature axis and offers them to the specified heap. The specified
+   * class frequencies are those of the specified records */
+  private void addFeatureBaseConditions(List<Record> records, int[] classFreqs, int feature, CandidateHeap conditions) {
+    int totalWeight = DecisionTree.sumArray(classFreqs);
+    AttributeSpace attrSpace;
+    if(records.size() >= sketchMinRecords) {
+      attrSpace = new AttributeSpace(records, feature, maxBuckets, sketchSize, numClasses);
+    } else {
+      attrSpace = new AttributeSpace(records, feature, maxBuckets, numClasses);
+    }
     for(int i = 0; i < attrSpace.numCandidates(); i++) {
-      double bucket = attrSpace.getCandidate(i);
-      Predicate<Record> condition = (record) -> {
-        return record.getOrDefault(feature) < bucket;
-      };
-      SplitCondition split = new SplitCondition(condition, feature, bucket);
-      int[] classFreqsLeft = attrSpace.getFreqList(i);
-      int[] classFreqsRight = new int[classIndexMap.size()];
-      for(int j = 0; j < classFreqs.length; j++) {
-        classFreqsRight[j] = classFreqs[j] - classFreqsLeft[j];
+      double impurity;
+      if(attrSpace.isBinary()) {
+        impurity = calcWeightedBinaryGiniImpurity(attrSpace.getPositiveCount(i), attrSpace.getTotalCount(i), classFreqs[1], totalWeight);
+      } else {
+        impurity = calcWeightedGiniImpurityFromTotals(attrSpace.getFreqList(i), classFreqs, totalWeight);
       }
-      split.setImpurity(calcWeightedGiniImpurity(classFreqsLeft, classFreqsRight, DecisionTree.sumArray(classFreqsLeft), records.size()));
-      conditions.add(split);
+      conditions.offer(feature, attrSpace.getCandidate(i), impurity);
     }
   }
 
@@ -112,14 +266,18 @@ public class SplitStrategy {
    * Includes any additional conditions that are tied for lowest impurity */
   protected List<SplitCondition> mostPureConditions(int numConditions, List<SplitCondition> conditions, List<Record> records, DecisionTree tree) {
     final int conditionsPerTask = 100;
+    int numClasses = tree.getNumClasses();
+    boolean[] positiveLabels = (numClasses == 2) ? getPositiveLabels(records) : null;
     ArrayList<Callable<Boolean>> tasks = new ArrayList<>(conditions.size());
     for(int x = 0; x < conditions.size(); x+=conditionsPerTask) {
       final int i = x;
       Callable<Boolean> task = () -> {
         try {
           for(int j = i; j < Math.min(i+conditionsPerTask, conditions.size()); j++) {
-            if(conditions.get(j).getImpurity() < 0) {
-              conditions.get(j).setImpurity(getTotalGiniImpurity(records, conditions.get(j), tree.getClassIndexMap()));
+            if(conditions.get(j).getImpurity() < 0 && positiveLabels != null) {
+              conditions.get(j).setImpurity(getTotalBinaryGiniImpurity(records, conditions.get(j), positiveLabels));
+            } else if(conditions.get(j).getImpurity() < 0) {
+              conditions.get(j).setImpurity(getTotalGiniImpurity(records, conditions.get(j), numClasses));
             }
           }
           return true;
@@ -142,34 +300,113 @@ public class SplitStrategy {
 
   /* Runs the specified tasks */
   private <T> void runTasks(Collection<? extends Callable<T>> tasks) {
-    ExecutorService taskExecutor = Executors.newFixedThreadPool(numThreads);
-    try {
-      taskExecutor.invokeAll(tasks);
-    } catch (InterruptedException e) {
-      throw new IllegalStateException(e);
-    } finally {
-      taskExecutor.shutdown();
-    }
+    DataMiningUtil.runTasks(tasks, numThreads);
   }
 
   /* The weighted GINI impurity of the split formed by partitioning the specified
    * list of records based on the specified condition */
-  public static double getTotalGiniImpurity(List<Record> records, SplitCondition splitCondition, HashMap<String, Integer> classIndexMap) {
-    int[] classFreqsLeft = new int[classIndexMap.size()];
-    int[] classFreqsRight = new int[classIndexMap.size()];
+  public static double getTotalGiniImpurity(List<Record> records, SplitCondition splitCondition, int numClasses) {
+    int[] classFreqsLeft = new int[numClasses];
+    int[] classFreqsRight = new int[numClasses];
     int totalLeft = 0;
-    int totalRight = 0;
+    int total = 0;
+    long[] passed = splitCondition.testAll(records);
+    int i = 0;
     for(Record record : records) {
-      int index = classIndexMap.get(record.getClassLabel());
-      if(splitCondition.test(record)) {
-        totalLeft++;
-        classFreqsLeft[index]++;
+      int index = record.getClassCode();
+      int weight = record.getWeight();
+      if((passed[i >>> 6] & (1L << i)) != 0) {
+        totalLeft += weight;
+        classFreqsLeft[index] += weight;
       } else {
-        totalRight++;
-        classFreqsRight[index]++;
+        classFreqsRight[index] += weight;
+      }
+      total += weight;
+      i++;
+    }
+    return calcWeightedGiniImpurity(classFreqsLeft, classFreqsRight, totalLeft, total);
+  }
+
+  /* Returns whether each of the specified records, which must be from only two
+   * classes, is from the positive class (the class with code 1) */
+  public static boolean[] getPositiveLabels(List<Record> records) {
+    boolean[] positiveLabels = new boolean[records.size()];
+    int i = 0;
+    for(Record record : records) {
+      positiveLabels[i++] = record.getClassCode() == 1;
+    }
+    return positiveLabels;
+  }
+
+  /* The weighted GINI impurity of the split formed by partitioning the specified
+   * list of records based on the specified condition. The specified array
+   * indicates which of the records, which must be from only two classes, are
+   * positive */
+  public static double getTotalBinaryGiniImpurity(List<Record> records, SplitCondition splitCondition, boolean[] positiveLabels) {
+    int positives = 0;
+    int positivesLeft = 0;
+    int totalLeft = 0;
+    int total = 0;
+    long[] passed = splitCondition.testAll(records);
+    int i = 0;
+    for(Record record : records) {
+      int weight = record.getWeight();
+      boolean positive = positiveLabels[i];
+      if(positive) {
+        positives += weight;
       }
+      if((passed[i >>> 6] & (1L << i)) != 0) {
+        totalLeft += weight;
+        if(positive) {
+          positivesLeft += weight;
+        }
+      }
+      total += weight;
+      i++;
+    }
+    return calcWeightedBinaryGiniImpurity(positivesLeft, totalLeft, positives, total);
+  }
+
+  /* Returns the weighted GINI impurity of a binary split of records from only two
+   * classes that results in the specified properties */
+  public static double calcWeightedBinaryGiniImpurity(int positivesLeft, int totalLeft, int positives, int totalRecords) {
+    int positivesRight = positives - positivesLeft;
+    int totalRight = totalRecords - totalLeft;
+    double sum = 0;
+    if(totalLeft > 0) {
+      sum += (1.0*positivesLeft*(totalLeft-positivesLeft))/totalLeft;
+    }
+    if(totalRight > 0) {
+      sum += (1.0*positivesRight*(totalRight-positivesRight))/totalRight;
+    }
+    return (2.0*sum)/totalRecords;
+  }
+
+  /* Returns the bias between the specified projection and the next larger one that
+   * sends the first left and the second right of a hyperplane */
+  public static double biasBetween(double value, double nextValue) {
+    double midpoint = 0.5*(value+nextValue);
+    // Adjacent doubles can round the midpoint down onto the current value
+    return (midpoint > value) ? midpoint : nextValue;
+  }
+
+  /* Returns the weighted GINI impurity of a binary split whose left side has the
+   * first specified class frequencies out of the second specified class frequencies
+   * of all the specified number of records. Allocates nothing */
+  public static double calcWeightedGiniImpurityFromTotals(int[] classFreqsLeft, int[] classFreqs, int totalRecords) {
+    int totalLeft = 0;
+    long sumLeft = 0;
+    long sumRight = 0;
+    for(int i = 0; i < classFreqs.length; i++) {
+      int classFreqRight = classFreqs[i] - classFreqsLeft[i];
+      totalLeft += classFreqsLeft[i];
+      sumLeft += (long)classFreqsLeft[i]*classFreqsLeft[i];
+      sumRight += (long)classFreqRight*classFreqRight;
     }
-    return calcWeightedGiniImpurity(classFreqsLeft, classFreqsRight, totalLeft, records.size());
+    int totalRight = totalRecords - totalLeft;
+    double giniLeft = (totalLeft == 0) ? 0.0 : (1.0 - sumLeft/(1.0 * totalLeft * totalLeft));
+    double giniRight = (totalRight == 0) ? 0.0 : (1.0 - sumRight/(1.0 * totalRight * totalRight));
+    return giniLeft*((1.0*totalLeft)/totalRecords) + giniRight*((1.0*totalRight)/totalRecords);
   }
 
   /* Returns the weighted GINI impurity of a binary split that results in the specified properties */
@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/* A decision tree learned incrementally from a stream of records in the manner of
+ * a Hoeffding tree, so it never needs the whole training set at once. Each leaf
+ * keeps the class frequencies of the records that reached it and, for each feature
+ * they were non-zero for, a quantile sketch of the feature's values, which bounds
+ * the memory of a leaf regardless of how many records reach it. Once gracePeriod
+ * records' weight has reached a leaf since it was last evaluated, candidate
+ * thresholds and the class frequencies below them are estimated from each sketch
+ * as an AttributeSpace does, and the leaf is split on the threshold with the
+ * largest reduction in Gini impurity if the Hoeffding bound shows, with probability
+ * 1 - splitConfidence, that it beats the best threshold of every other feature, or
+ * if the two are within tieThreshold of each other once the bound is that small.
+ * Records are ingested in batches whose records are routed to their leaves, then
+ * the leaves are updated and evaluated concurrently, each with its own random number
+ * generator seeded from its position, so the tree does not depend on the number
+ * of threads. After each batch a FlatTree of the tree is published, which records
+ * can be classified with while the next batch is ingested. Since leaves are only
+ * evaluated at the end of a batch, a leaf can take in up to a batch's worth of
+ * records past gracePeriod before it is evaluated. The Hoeffding bound takes the
+ * range of the reduction in Gini impurity to be 1, although for k classes it is at
+ * most 1-1/k, so the bound is conservative and leaves split later than they need to */
+public class StreamingTree extends Classifier {
+
+  /* Table that the class codes of the records are interned in */
+  private final LabelTable labelTable;
+  /* Number of different class codes in the label table */
+  private final int numClasses;
+  /* Weight of the records that must reach a leaf between evaluations of its splits */
+  private final int gracePeriod;
+  /* Probability allowed that a leaf is split on a threshold that is not the best */
+  private final double splitConfidence;
+  /* Hoeffding bound below which the best two thresholds are considered tied */
+  private final double tieThreshold;
+  /* Maximum number of candidate thresholds considered for each feature */
+  private final int maxBuckets;
+  /* Size of the quantile sketches kept for each feature at each leaf */
+  private final int sketchSize;
+  /* Number of threads leaves are updated and evaluated with */
+  private final int numThreads;
+  /* Seed of the tree that the seeds of its leaves are derived from */
+  private final long seed;
+  /* The root node of the tree */
+  private final StreamNode root;
+  /* Current structure of the tree, replaced after each batch */
+  private volatile DecisionTree.FlatTree snapshot;
+  /* Total weight of the records ingested */
+  private long totalWeight;
+  /* Number of leaves of the tree */
+  private int numLeaves;
+
+  /* Constructor, makes a tree of a single leaf for records whose class codes are
+   * interned in the specified label table. The seed of the tree is drawn from the
+   * builder's random number generator */
+  public StreamingTree(LabelTable labelTable, DecisionTreeBuilder builder) {
+    this.labelTable = labelTable;
+    this.numClasses = labelTable.size();
+    this.gracePeriod = builder.gracePeriod;
+    this.splitConfidence = builder.splitConfidence;
+    this.tieThreshold = builder.tieThreshold;
+    this.maxBuckets = builder.maxBuckets;
+    this.sketchSize = builder.sketchSize;
+    this.numThreads = builder.numThreads;
+    this.seed = builder.rand.nextLong();
+    this.root = new StreamNode(SplitContext.root(), 0);
+    this.numLeaves = 1;
+    this.snapshot = flatten();
+  }
+
+  /* Adds the specified batch of records to the statistics of the leaves they reach,
+   * splits the leaves whose splits are confirmed and publishes the new structure of
+   * the tree */
+  public synchronized void ingest(List<Record> batch) {
+    LinkedHashMap<StreamNode, ArrayList<Record>> reaching = new LinkedHashMap<>();
+    for(Record record : batch) {
+      int classCode = record.getClassCode();
+      if(classCode < 0 || classCode >= numClasses) {
+        throw new RuntimeException("Record's class was not in the label table when the tree was created.");
+      }
+      reaching.computeIfAbsent(root.getLeaf(record), (leaf) -> new ArrayList<>()).add(record);
+      totalWeight += record.getWeight();
+    }
+    ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+    for(Map.Entry<StreamNode, ArrayList<Record>> entry : reaching.entrySet()) {
+      StreamNode leaf = entry.getKey();
+      List<Record> records = entry.getValue();
+      tasks.add(() -> {
+        try {
+          for(Record record : records) {
+            leaf.update(record);
+          }
+          if(leaf.weightSinceEvaluation >= gracePeriod) {
+            leaf.weightSinceEvaluation = 0;
+            leaf.selectedSplit = leaf.selectSplit();
+          }
+          return true;
+        } catch(Exception e) {
+          e.printStackTrace();
+          return false;
+        }
+      });
+    }
+    DataMiningUtil.runTasks(tasks, numThreads);
+    for(StreamNode leaf : reaching.keySet()) {
+      if(leaf.selectedSplit != null) {
+        leaf.split();
+        numLeaves++;
+      }
+    }
+    snapshot = flatten();
+  }
+
+  /* Returns the current structure of the tree. The returned tree is not changed by
+   * later batches */
+  public DecisionTree.FlatTree snapshot() {
+    return snapshot;
+  }
+
+  /* Accessor for totalWeight */
+  public synchronized long getTotalWeight() {
+    return totalWeight;
+  }
+
+  /* Accessor for numLeaves */
+  public synchronized int getNumLeaves() {
+    return numLeaves;
+  }
+
+  /* Classifies a single record with the last published structure of the tree and
+   * returns the code of the calculated class */
+  @Override
+  public int classifyCode(Record record) {
+    return snapshot.classifyCode(record);
+  }
+
+  /* Classifies every record in the specified list with the same published structure
+   * of the tree */
+  @Override
+  public int[] classifyAllCodes(List<Record> records) {
+    DecisionTree.FlatTree current = snapshot;
+    int[] codes = new int[records.size()];
+    int i = 0;
+    for(Record record : records) {
+      codes[i++] = current.classifyCode(record);
+    }
+    return codes;
+  }
+
+  /* Accessor for labelTable */
+  @Override
+  public LabelTable getLabelTable() {
+    return labelTable;
+  }
+
+  /* Returns the structure of the tree as a FlatTree */
+  private DecisionTree.FlatTree flatten() {
+    ArrayList<StreamNode> nodes = new ArrayList<>();
+    nodes.add(root);
+    for(int i = 0; i < nodes.size(); i++) {
+      StreamNode node = nodes.get(i);
+      if(!node.isLeaf()) {
+        nodes.add(node.trueChild);
+        nodes.add(node.falseChild);
+      }
+    }
+    SplitCondition[] conditions = new SplitCondition[nodes.size()];
+    int[] trueChild = new int[nodes.size()];
+    int[] falseChild = new int[nodes.size()];
+    int[] leafClass = new int[nodes.size()];
+    int next = 1;
+    for(int i = 0; i < nodes.size(); i++) {
+      StreamNode node = nodes.get(i);
+      if(node.isLeaf()) {
+        leafClass[i] = node.getLeafClass();
+      } else {
+        leafClass[i] = Record.NO_CLASS;
+        conditions[i] = node.condition;
+        trueChild[i] = next++;
+        falseChild[i] = next++;
+      }
+    }
+    return new DecisionTree.FlatTree(conditions, trueChild, falseChild, leafClass);
+  }
+
+  /* Statistics of the values of a single feature at a leaf */
+  private static class FeatureStats {
+    /* Sketch of the feature's values */
+    final QuantileSketch sketch;
+    /* Weight of the records of each class whose value is in the sketch. Records
+     * the feature is zero for are only added to the sketch when it is read */
+    final int[] counted;
+
+    FeatureStats(QuantileSketch sketch, int numClasses) {
+      this.sketch = sketch;
+      this.counted = new int[numClasses];
+    }
+  }
+
+  /* A node of the tree. Leaves hold the statistics of the records that reached
+   * them, which are dropped once the leaf is split */
+  private class StreamNode {
+    /* Where in the tree the node is */
+    final SplitContext context;
+    /* Class predicted by the node while no records have reached it */
+    final int defaultClass;
+    /* Condition the node is split on, null for leaves */
+    SplitCondition condition;
+    /* Children holding the records that pass and fail the condition */
+    StreamNode trueChild;
+    StreamNode falseChild;
+    /* Weight of the records of each class that reached the leaf */
+    int[] classFreqs;
+    /* Statistics of each feature that was non-zero for a record reaching the leaf */
+    HashMap<Integer, FeatureStats> featureStats;
+    /* Used by the leaf's sketches, seeded from the leaf's position */
+    Random rand;
+    /* Weight of the records that reached the leaf since its splits were evaluated */
+    int weightSinceEvaluation;
+    /* Split confirmed by the last evaluation, null if there is none */
+    SplitCondition selectedSplit;
+
+    /* Constructor, makes a leaf at the specified position */
+    StreamNode(SplitContext context, int defaultClass) {
+      this.context = context;
+      this.defaultClass = defaultClass;
+      this.classFreqs = new int[numClasses];
+      this.featureStats = new HashMap<>();
+      this.rand = new Random(context.deriveSeed(seed));
+    }
+
+    /* Returns whether this node is a leaf */
+    boolean isLeaf() {
+      return condition == null;
+    }
+
+    /* Returns the leaf the specified record reaches from this node */
+    StreamNode getLeaf(Record record) {
+      StreamNode node = this;
+      while(!node.isLeaf()) {
+        node = node.condition.test(record) ? node.trueChild : node.falseChild;
+      }
+      return node;
+    }
+
+    /* Returns the class this leaf predicts */
+    int getLeafClass() {
+      return (DecisionTree.sumArray(classFreqs) == 0) ? defaultClass : DecisionTree.getIndexOfMax(classFreqs);
+    }
+
+    /* Adds the specified record to the statistics of this leaf */
+    void update(Record record) {
+      int classCode = record.getClassCode();
+      int weight = record.getWeight();
+      classFreqs[classCode] += weight;
+      weightSinceEvaluation += weight;
+      Record.SortedRow row = record.getSortedRow();
+      for(int i = 0; i < row.features.length; i++) {
+        FeatureStats stats = featureStats.get(row.features[i]);
+        if(stats == null) {
+          stats = new FeatureStats(new QuantileSketch(sketchSize, numClasses, rand), numClasses);
+          featureStats.put(row.features[i], stats);
+        }
+        stats.sketch.update(row.values[i], classCode, weight);
+        stats.counted[classCode] += weight;
+      }
+    }
+
+    /* Returns the split of this leaf that the Hoeffding bound confirms is the best,
+     * or null if no split is confirmed yet. The gain of a split is bounded by 1, so
+     * the bound after a total weight of n is sqrt(ln(1/splitConfidence)/(2n)) */
+    SplitCondition selectSplit() {
+      int total = DecisionTree.sumArray(classFreqs);
+      double impurity = SplitStrategy.getGiniImpurity(classFreqs);
+      SplitCondition best = null;
+      double bestGain = 0;
+      double secondGain = 0;
+      int[] below = new int[numClasses];
+      for(Map.Entry<Integer, FeatureStats> entry : featureStats.entrySet()) {
+        FeatureStats stats = entry.getValue();
+        for(int c = 0; c < numClasses; c++) {
+          if(classFreqs[c] > stats.counted[c]) {
+            stats.sketch.update(Record.DEFAULT_FEATURE_VALUE, c, classFreqs[c] - stats.counted[c]);
+            stats.counted[c] = classFreqs[c];
+          }
+        }
+        AttributeSpace space = new AttributeSpace(stats.sketch, maxBuckets, numClasses);
+        double featureGain = 0;
+        int featureBest = -1;
+        for(int i = 0; i < space.numCandidates(); i++) {
+          int[] estimated = space.getFreqList(i);
+          // Estimates can exceed the true frequencies of a class
+          for(int c = 0; c < numClasses; c++) {
+            below[c] = Math.min(estimated[c], classFreqs[c]);
+          }
+          double gain = impurity - SplitStrategy.calcWeightedGiniImpurityFromTotals(below, classFreqs, total);
+          if(gain > featureGain) {
+            featureGain = gain;
+            featureBest = i;
+          }
+        }
+        if(featureGain > bestGain) {
+          secondGain = bestGain;
+          bestGain = featureGain;
+          best = new SplitCondition(entry.getKey(), space.getCandidate(featureBest));
+        } else if(featureGain > secondGain) {
+          secondGain = featureGain;
+        }
+      }
+      double bound = Math.sqrt(Math.log(1/splitConfidence)/(2.0*total));
+      if(best != null && (bestGain - secondGain > bound || bound < tieThreshold)) {
+        return best;
+      }
+      return null;
+    }
+
+    /* Splits this leaf on its selected split. Each child predicts the majority class
+     * of the records estimated to reach it until records do */
+    void split() {
+      FeatureStats stats = featureStats.get(selectedSplit.getFeature());
+      int[][] estimated = stats.sketch.estimateFreqLists(new double[]{selectedSplit.getBucket()});
+      int[] trueFreqs = new int[numClasses];
+      int[] falseFreqs = new int[numClasses];
+      for(int c = 0; c < numClasses; c++) {
+        trueFreqs[c] = Math.min(estimated[0][c], classFreqs[c]);
+        falseFreqs[c] = classFreqs[c] - trueFreqs[c];
+      }
+      int parentClass = getLeafClass();
+      condition = selectedSplit;
+      trueChild = new StreamNode(context.child(condition, true), (DecisionTree.sumArray(trueFreqs) == 0) ? parentClass : DecisionTree.getIndexOfMax(trueFreqs));
+      falseChild = new StreamNode(context.child(condition, false), (DecisionTree.sumArray(falseFreqs) == 0) ? parentClass : DecisionTree.getIndexOfMax(falseFreqs));
+      classFreqs = null;
+      featureStats = null;
+      rand = null;
+      selectedSplit = null;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Tree-wide limit on the wall-clock time and/or number of fitness evaluations
+ * spent searching for splits. Each node is allocated a share of the budget in
+ * proportion to its weight, the number of records reaching it times their Gini
+ * impurity. Since the weights of the nodes at any one depth sum to at most the
+ * root's weight, dividing the budget by an estimate of the number of levels the
+ * tree will have spreads it over the whole tree. A node's allocation never exceeds
+ * what remains, and whatever a node does not use is left for later nodes. */
+public class TrainingBudget {
+
+  /* Maximum time spent in nanoseconds, 0 if unlimited */
+  private final long budgetNanos;
+  /* Maximum number of fitness evaluations, 0 if unlimited */
+  private final long budgetEvaluations;
+  /* Whether a search stops as soon as its allocation runs out rather than only
+   * between generations */
+  private final boolean anytime;
+  /* Number of fitness evaluations made so far */
+  private final AtomicLong evaluations;
+  /* Time at which the first allocation was made */
+  private long startNanos;
+  /* Weight of the first node allocated to, the tree's root */
+  private double rootWeight;
+  /* Estimated number of levels in the tree */
+  private int numLevels;
+
+  /* Constructor */
+  public TrainingBudget(long budgetMillis, long budgetEvaluations, boolean anytime) {
+    this.budgetNanos = Math.max(0, budgetMillis)*1000000L;
+    this.budgetEvaluations = Math.max(0, budgetEvaluations);
+    this.anytime = anytime;
+    this.evaluations = new AtomicLong();
+    this.rootWeight = -1;
+  }
+
+  /* Returns whether the budget places any limit on the search */
+  public boolean isLimited() {
+    return budgetNanos > 0 || budgetEvaluations > 0;
+  }
+
+  /* Accessor for anytime */
+  public boolean isAnytime() {
+    return anytime;
+  }
+
+  /* Returns the allocation for a node reached by the specified number of records
+   * with the specified Gini impurity. The first node allocated to is taken to be
+   * the root */
+  public synchronized Allocation allocate(int numRecords, double impurity) {
+    double weight = numRecords*impurity;
+    if(rootWeight < 0) {
+      startNanos = System.nanoTime();
+      rootWeight = Math.max(weight, Double.MIN_VALUE);
+      numLevels = 1 + (int)Math.ceil(Math.log(Math.max(2, numRecords))/Math.log(2));
+    }
+    double share = Math.min(1.0, weight/rootWeight)/numLevels;
+    long deadline = Long.MAX_VALUE;
+    if(budgetNanos > 0) {
+      long now = System.nanoTime();
+      long remaining = Math.max(0, startNanos + budgetNanos - now);
+      deadline = now + Math.min(remaining, (long)(share*budgetNanos));
+    }
+    long maxEvaluations = Long.MAX_VALUE;
+    if(budgetEvaluations > 0) {
+      long remaining = Math.max(0, budgetEvaluations - evaluations.get());
+      maxEvaluations = Math.min(remaining, (long)Math.ceil(share*budgetEvaluations));
+    }
+    return new Allocation(deadline, maxEvaluations);
+  }
+
+  /* Returns the number of fitness evaluations made so far */
+  public long getEvaluations() {
+    return evaluations.get();
+  }
+
+  /* Returns the progress of the budget so far, or null if nothing has been
+   * allocated yet */
+  public synchronized Progress getProgress() {
+    if(rootWeight < 0) {
+      return null;
+    }
+    return new Progress(System.nanoTime() - startNanos, rootWeight, numLevels, evaluations.get());
+  }
+
+  /* Continues from the specified progress of a budget with the same limits, as if
+   * the time and evaluations it had used were spent by this budget */
+  public synchronized void restore(Progress progress) {
+    startNanos = System.nanoTime() - progress.elapsedNanos;
+    rootWeight = progress.rootWeight;
+    numLevels = progress.numLevels;
+    evaluations.set(progress.evaluations);
+  }
+
+  /* The state of a budget that has made allocations, saved with checkpoints of the
+   * tree it limits so that a resumed build allocates the same shares */
+  public static class Progress implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /* Nanoseconds since the first allocation */
+    private final long elapsedNanos;
+    /* Weight of the tree's root and estimated number of levels in the tree */
+    private final double rootWeight;
+    private final int numLevels;
+    /* Number of fitness evaluations made */
+    private final long evaluations;
+
+    /* Constructor */
+    private Progress(long elapsedNanos, double rootWeight, int numLevels, long evaluations) {
+      this.elapsedNanos = elapsedNanos;
+      this.rootWeight = rootWeight;
+      this.numLevels = numLevels;
+      this.evaluations = evaluations;
+    }
+  }
+
+  /* Share of the budget given to a single node. Safe to use from several threads */
+  public class Allocation {
+    /* Time, as given by System.nanoTime, at which the allocation runs out */
+    private final long deadline;
+    /* Number of fitness evaluations the node may still make */
+    private final AtomicLong evaluationsLeft;
+
+    /* Constructor */
+    private Allocation(long deadline, long maxEvaluations) {
+      this.deadline = deadline;
+      this.evaluationsLeft = new AtomicLong(maxEvaluations);
+    }
+
+    /* Returns whether the allocation has run out */
+    public boolean isExhausted() {
+      return evaluationsLeft.get() <= 0 || (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline);
+    }
+
+    /* Records that the specified number of fitness evaluations were made */
+    public void consume(int numEvaluations) {
+      evaluationsLeft.addAndGet(-numEvaluations);
+      evaluations.addAndGet(numEvaluations);
+    }
+
+    /* Accessor for anytime of the enclosing budget */
+    public boolean isAnytime() {
+      return anytime;
+    }
+  }
+}
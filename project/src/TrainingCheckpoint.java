@@ -0,0 +1,292 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* The progress of a decision tree being grown: the nodes grown so far and the
+ * frontier of nodes still to be split along with the rows of the training records
+ * reaching them. Split strategies draw their seeds from the builder's random number
+ * generator when they are created and seed each node from its position in the tree.
+ * A checkpoint is only resumed by a build whose generator starts in the same state,
+ * so a resumed build grows the same tree as one that was never interrupted. The
+ * progress of a budget limiting the search for splits is saved as well, though a
+ * time budget makes the tree depend on timing whether or not the build resumes */
+public class TrainingCheckpoint implements Serializable {
+
+  /* Version of the serialized form, changed whenever the fields change */
+  private static final long serialVersionUID = 1L;
+
+  /* Hash of the training records and the options the tree is grown with */
+  private final long fingerprint;
+  /* Nanoseconds spent growing the tree before this checkpoint was taken */
+  private final long elapsedNanos;
+  /* Sequence number the next node to join a best-first frontier gets */
+  private final long nextSeq;
+  /* Progress of the budget limiting the search for splits, null if there is none */
+  private final TrainingBudget.Progress budgetProgress;
+  /* The nodes grown so far in breadth-first order, with the root at index 0 */
+  private final ArrayList<Node> nodes;
+  /* The nodes waiting to be split */
+  private final ArrayList<Entry> frontier;
+
+  /* Constructor */
+  public TrainingCheckpoint(long fingerprint, long elapsedNanos, long nextSeq, TrainingBudget.Progress budgetProgress,
+                            ArrayList<Node> nodes, ArrayList<Entry> frontier) {
+    this.fingerprint = fingerprint;
+    this.elapsedNanos = elapsedNanos;
+    this.nextSeq = nextSeq;
+    this.budgetProgress = budgetProgress;
+    this.nodes = nodes;
+    this.frontier = frontier;
+  }
+
+  /* Accessor for elapsedNanos */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /* Accessor for nextSeq */
+  public long getNextSeq() {
+    return nextSeq;
+  }
+
+  /* Accessor for budgetProgress */
+  public TrainingBudget.Progress getBudgetProgress() {
+    return budgetProgress;
+  }
+
+  /* Accessor for nodes */
+  public ArrayList<Node> getNodes() {
+    return nodes;
+  }
+
+  /* Accessor for frontier */
+  public ArrayList<Entry> getFrontier() {
+    return frontier;
+  }
+
+  /* Returns a hash of the specified training records, which strategy class splits
+   * them, the specified builder's options and the state its random number generator
+   * is in when the build starts. A checkpoint is only resumed by a build with the
+   * same fingerprint */
+  public static long fingerprint(List<Record> records, Class<?> strategyClass, DecisionTreeBuilder builder) {
+    long hash = strategyClass.getName().hashCode()*31L + builder.getOptionsHash();
+    hash = hash*31 + copy(builder.rand).nextLong();
+    hash = hash*31 + records.size();
+    for(Record record : records) {
+      hash = hash*31 + record.getClassCode();
+      hash = hash*31 + record.getWeight();
+      hash = hash*31 + record.hashCode();
+    }
+    return hash;
+  }
+
+  /* Returns a copy of the specified random number generator in the same state */
+  private static Random copy(Random rand) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(rand);
+      out.close();
+      return (Random)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    } catch(IOException | ClassNotFoundException e) {
+      throw new RuntimeException("Failed to copy random number generator.", e);
+    }
+  }
+
+  /* A node of the tree grown so far */
+  public static class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /* Frequencies of the classes of the records reaching the node */
+    public final int[] classFreqs;
+    /* Class code of the node, Record.NO_CLASS if it is split */
+    public final int leafClass;
+    /* Condition the node was split on, null if it has not been */
+    public final SplitCondition condition;
+    /* Indices of the node's children, -1 if it has none */
+    public final int trueChild;
+    public final int falseChild;
+
+    /* Constructor */
+    public Node(int[] classFreqs, int leafClass, SplitCondition condition, int trueChild, int falseChild) {
+      this.classFreqs = classFreqs;
+      this.leafClass = leafClass;
+      this.condition = condition;
+      this.trueChild = trueChild;
+      this.falseChild = falseChild;
+    }
+  }
+
+  /* A node waiting to be split. The node's split of a best-first frontier has
+   * already been selected, so the entry holds the rows on each side of it. Rows
+   * are indices into the list of training records in their order in that list */
+  public static class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /* Index of the node */
+    public final int node;
+    /* Where in the tree the node is, as given by its SplitContext */
+    public final SplitCondition parentCondition;
+    public final boolean trueBranch;
+    public final int depth;
+    public final long path;
+    /* Features that are not constant over the node's records, null if unknown */
+    public final int[] activeFeatures;
+    /* Rows reaching a node of a depth-first frontier, null for best first */
+    public final int[] rows;
+    /* Selected split of a node of a best-first frontier and the rows that pass and
+     * fail it, null for depth first */
+    public final SplitCondition condition;
+    public final int[] trueRows;
+    public final int[] falseRows;
+    /* Reduction in impurity of the selected split and order of the node in the
+     * best-first frontier */
+    public final double gain;
+    public final long seq;
+
+    /* Constructor */
+    public Entry(int node, SplitContext context, int[] rows, SplitCondition condition, int[] trueRows, int[] falseRows, double gain, long seq) {
+      this.node = node;
+      this.parentCondition = context.getParentCondition();
+      this.trueBranch = context.isTrueBranch();
+      this.depth = context.getDepth();
+      this.path = context.getPath();
+      this.activeFeatures = context.getActiveFeatures();
+      this.rows = rows;
+      this.condition = condition;
+      this.trueRows = trueRows;
+      this.falseRows = falseRows;
+      this.gain = gain;
+      this.seq = seq;
+    }
+
+    /* Returns the context of the node */
+    public SplitContext getContext() {
+      SplitContext context = SplitContext.restore(parentCondition, trueBranch, depth, path);
+      context.setActiveFeatures(activeFeatures);
+      return context;
+    }
+  }
+
+  /* Saves checkpoints of a tree to a file on a background thread, at most one
+   * every interval, so growing the tree never waits for a checkpoint to be written.
+   * A checkpoint is only taken once the previous one has been written. Each is
+   * written to a temporary file that then replaces the checkpoint file, so the file
+   * always holds a whole checkpoint */
+  public static class Writer {
+
+    /* File checkpoints are saved to */
+    private final File file;
+    /* Minimum number of nanoseconds between checkpoints */
+    private final long intervalNanos;
+    /* Fingerprint of the build */
+    private final long fingerprint;
+    /* Checkpoint loaded from the file that the build resumes from, null if it
+     * starts afresh */
+    private final TrainingCheckpoint resumed;
+    /* Writes the checkpoints */
+    private final ExecutorService executor;
+    /* Write of the last checkpoint, null before the first */
+    private Future<?> lastWrite;
+    /* Time, as given by System.nanoTime, of the last checkpoint */
+    private long lastNanos;
+
+    /* Constructor, loads the checkpoint in the specified file if there is one with
+     * the specified fingerprint */
+    public Writer(String filename, long intervalMillis, long fingerprint) {
+      this.file = new File(filename);
+      this.intervalNanos = Math.max(0, intervalMillis)*1000000L;
+      this.fingerprint = fingerprint;
+      this.resumed = load(file, fingerprint);
+      this.executor = Executors.newSingleThreadExecutor((task) -> {
+        Thread thread = new Thread(task, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.lastNanos = System.nanoTime();
+    }
+
+    /* Returns the checkpoint in the specified file, or null if there is no file or
+     * its checkpoint is of a different build or cannot be read, for example because
+     * it was saved by an incompatible version of the classes */
+    private static TrainingCheckpoint load(File file, long fingerprint) {
+      if(!file.exists()) {
+        return null;
+      }
+      try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        TrainingCheckpoint checkpoint = (TrainingCheckpoint)in.readObject();
+        if(checkpoint.fingerprint != fingerprint) {
+          System.out.println("Ignoring checkpoint of a different build: " + file);
+          return null;
+        }
+        System.out.println("Resuming from checkpoint: " + file);
+        return checkpoint;
+      } catch(IOException | ClassNotFoundException | ClassCastException e) {
+        System.out.println("Ignoring unreadable checkpoint: " + file + " (" + e + ")");
+        return null;
+      }
+    }
+
+    /* Accessor for resumed */
+    public TrainingCheckpoint getResumed() {
+      return resumed;
+    }
+
+    /* Returns whether a checkpoint should be taken now */
+    public boolean isDue() {
+      return (lastWrite == null || lastWrite.isDone()) && System.nanoTime() - lastNanos >= intervalNanos;
+    }
+
+    /* Saves a checkpoint of the specified progress in the background. The nodes
+     * and entries must not be changed afterwards */
+    public void write(long elapsedNanos, long nextSeq, TrainingBudget.Progress budgetProgress, ArrayList<Node> nodes, ArrayList<Entry> frontier) {
+      TrainingCheckpoint checkpoint = new TrainingCheckpoint(fingerprint, elapsedNanos, nextSeq, budgetProgress, nodes, frontier);
+      lastNanos = System.nanoTime();
+      lastWrite = executor.submit(() -> {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+          try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeObject(checkpoint);
+          }
+          Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+          e.printStackTrace();
+        }
+      });
+    }
+
+    /* Waits for the last checkpoint to be written and stops the background thread */
+    public void close() {
+      try {
+        if(lastWrite != null) {
+          lastWrite.get();
+        }
+      } catch(Exception e) {
+        e.printStackTrace();
+      } finally {
+        executor.shutdown();
+      }
+    }
+
+    /* Deletes the checkpoint file once the build it was taken of has finished */
+    public void delete() {
+      file.delete();
+    }
+  }
+}